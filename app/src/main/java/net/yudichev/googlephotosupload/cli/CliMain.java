@@ -10,6 +10,7 @@ import org.slf4j.LoggerFactory;
 
 import java.io.PrintWriter;
 import java.io.StringWriter;
+import java.time.Duration;
 
 import static net.yudichev.googlephotosupload.core.BuildVersion.buildVersion;
 import static net.yudichev.googlephotosupload.core.SingleInstanceCheck.otherInstanceRunning;
@@ -22,6 +23,7 @@ public final class CliMain {
         var exitCode = 0;
         try {
             var commandLine = parser.parse(CliOptions.OPTIONS, args);
+            validateUploadConcurrency(commandLine);
             var helpRequested = commandLine.hasOption('h');
             if (helpRequested) {
                 printHelp();
@@ -31,7 +33,7 @@ public final class CliMain {
                 logger.info("Version {}", buildVersion());
             }
             if (commandLine.hasOption('r')) {
-                var settingsModule = new SettingsModule();
+                var settingsModule = new SettingsModule(stateWriteBehindSettings(commandLine));
                 if (otherInstanceRunning(settingsModule.getSettingsRootPath())) {
                     logger.error("Another copy of the app is already running");
                     exitCode = 1;
@@ -71,6 +73,47 @@ public final class CliMain {
                 .run();
     }
 
+    private static void validateUploadConcurrency(CommandLine commandLine) throws ParseException {
+        var value = commandLine.getOptionValue('c');
+        if (value == null) {
+            return;
+        }
+        int uploadConcurrency;
+        try {
+            uploadConcurrency = Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            uploadConcurrency = 0;
+        }
+        if (uploadConcurrency <= 0) {
+            throw new ParseException("Upload concurrency (-c) must be a positive whole number, but was: " + value);
+        }
+    }
+
+    private static StateWriteBehindSettings stateWriteBehindSettings(CommandLine commandLine) throws ParseException {
+        var builder = StateWriteBehindSettings.builder();
+        var batchSize = commandLine.getOptionValue("state-batch-size");
+        if (batchSize != null) {
+            try {
+                builder.setMaxBatchSize(Integer.parseInt(batchSize));
+            } catch (NumberFormatException e) {
+                throw new ParseException("State batch size (--state-batch-size) must be a positive whole number, but was: " + batchSize);
+            }
+        }
+        var maxDelayMs = commandLine.getOptionValue("state-max-delay-ms");
+        if (maxDelayMs != null) {
+            try {
+                builder.setMaxDelay(Duration.ofMillis(Long.parseLong(maxDelayMs)));
+            } catch (NumberFormatException e) {
+                throw new ParseException("State max delay (--state-max-delay-ms) must be a positive whole number, but was: " + maxDelayMs);
+            }
+        }
+        try {
+            return builder.build();
+        } catch (IllegalArgumentException e) {
+            throw new ParseException("Invalid upload state write-behind settings: " + e.getMessage());
+        }
+    }
+
     private static void printHelp() {
         var helpFormatter = new HelpFormatter();
         helpFormatter.setWidth(100);
@@ -15,6 +15,46 @@ public final class CliOptions {
                     .longOpt("no-resume")
                     .desc("Forget previous state and force re-upload of all files")
                     .build())
+            .addOption(Option.builder("c")
+                    .longOpt("upload-concurrency")
+                    .hasArg()
+                    .argName("COUNT")
+                    .desc("Number of files to upload in parallel; overrides the value from preferences")
+                    .build())
+            .addOption(Option.builder()
+                    .longOpt("lazy-state")
+                    .desc("Do not load the whole upload state into memory at startup; load it per directory instead. Recommended for very " +
+                            "large libraries")
+                    .build())
+            .addOption(Option.builder()
+                    .longOpt("dedup-by-content")
+                    .desc("Do not re-upload files whose content was already uploaded under a different path (e.g. after a folder was moved)")
+                    .build())
+            .addOption(Option.builder()
+                    .longOpt("incremental-scan")
+                    .desc("Do not list directories unchanged since all their files were uploaded; faster for large libraries, but may miss " +
+                            "files replaced in place")
+                    .build())
+            .addOption(Option.builder()
+                    .longOpt("refresh-albums")
+                    .desc("List all albums in Google Photos instead of using the locally cached list")
+                    .build())
+            .addOption(Option.builder("w")
+                    .longOpt("watch")
+                    .desc("After uploading, keep running and upload new files as they appear under the root directory")
+                    .build())
+            .addOption(Option.builder()
+                    .longOpt("state-batch-size")
+                    .hasArg()
+                    .argName("COUNT")
+                    .desc("Maximum number of upload state changes to keep in memory before saving them to the local database")
+                    .build())
+            .addOption(Option.builder()
+                    .longOpt("state-max-delay-ms")
+                    .hasArg()
+                    .argName("MILLIS")
+                    .desc("Maximum time an upload state change is kept in memory before it is saved to the local database")
+                    .build())
             .addOption(Option.builder("v")
                     .longOpt("version")
                     .desc("Print app version")
@@ -12,6 +12,8 @@ import javax.inject.Inject;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ResourceBundle;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 
 import static com.google.common.base.Preconditions.checkNotNull;
 import static net.yudichev.googlephotosupload.core.HumanReadableExceptionMessage.toHumanReadableMessage;
@@ -26,18 +28,23 @@ final class CliStarter extends BaseLifecycleComponent {
     private final Uploader uploader;
     private final ApplicationLifecycleControl applicationLifecycleControl;
     private final ResourceBundle resourceBundle;
+    private final DirectoryWatcher directoryWatcher;
     private final boolean resume;
+    private final boolean watch;
 
     @Inject
     CliStarter(CommandLine commandLine,
                Uploader uploader,
                ApplicationLifecycleControl applicationLifecycleControl,
-               ResourceBundle resourceBundle) {
+               ResourceBundle resourceBundle,
+               DirectoryWatcher directoryWatcher) {
         rootDir = Paths.get(commandLine.getOptionValue('r'));
         resume = !commandLine.hasOption('n');
+        watch = commandLine.hasOption('w');
         this.uploader = checkNotNull(uploader);
         this.applicationLifecycleControl = checkNotNull(applicationLifecycleControl);
         this.resourceBundle = checkNotNull(resourceBundle);
+        this.directoryWatcher = checkNotNull(directoryWatcher);
     }
 
     @SuppressWarnings("StaticVariableUsedBeforeInitialization")
@@ -48,6 +55,11 @@ final class CliStarter extends BaseLifecycleComponent {
     @Override
     protected void doStart() {
         logger.info(resourceBundle.getString("googleStorageWarning"));
+        var initialUploadFuture = new CompletableFuture<Void>();
+        if (watch) {
+            // before the scan starts, so that files added while it is running are not missed
+            startWatching(initialUploadFuture);
+        }
         uploader.upload(ImmutableList.of(rootDir), resume)
                 .whenComplete((ignored1, e) -> {
                     //noinspection AssignmentToStaticFieldFromInstanceMethod
@@ -55,7 +67,37 @@ final class CliStarter extends BaseLifecycleComponent {
                     if (e != null) {
                         logger.error("{}", toHumanReadableMessage(resourceBundle, e));
                     }
-                    applicationLifecycleControl.initiateShutdown();
+                    if (e != null || !watch) {
+                        applicationLifecycleControl.initiateShutdown();
+                    }
+                    initialUploadFuture.complete(null);
                 });
     }
+
+    @Override
+    protected void doStop() {
+        directoryWatcher.stop();
+    }
+
+    private void startWatching(CompletableFuture<Void> initialUploadFuture) {
+        directoryWatcher.start(rootDir, initialUploadFuture, new DirectoryWatcher.Listener() {
+            @Override
+            public CompletableFuture<Void> onFilesChanged(Set<Path> files) {
+                return logFailure(uploader.uploadFiles(rootDir, files));
+            }
+
+            @Override
+            public CompletableFuture<Void> onChangesLost() {
+                return logFailure(uploader.upload(ImmutableList.of(rootDir), true));
+            }
+        });
+    }
+
+    private CompletableFuture<Void> logFailure(CompletableFuture<Void> future) {
+        return future.whenComplete((ignored, e) -> {
+            if (e != null) {
+                logger.error("{}", toHumanReadableMessage(resourceBundle, e));
+            }
+        });
+    }
 }
@@ -0,0 +1,224 @@
+package net.yudichev.googlephotosupload.cli;
+
+import net.yudichev.jiotty.common.time.CurrentDateTimeProvider;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.inject.Inject;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+import static com.google.common.collect.ImmutableSet.toImmutableSet;
+import static java.nio.file.LinkOption.NOFOLLOW_LINKS;
+import static java.nio.file.StandardWatchEventKinds.*;
+import static java.util.concurrent.CompletableFuture.completedFuture;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static net.yudichev.jiotty.common.lang.MoreThrowables.asUnchecked;
+import static net.yudichev.jiotty.common.lang.MoreThrowables.getAsUnchecked;
+
+/**
+ * Watches a directory tree and reports new or modified files in batches: changes are collected until there are none for a quiet period, so
+ * that a burst of files (e.g. a phone sync) is handled at once. A file is never reported while it is still changing.
+ */
+final class DirectoryWatcher {
+    private static final Logger logger = LoggerFactory.getLogger(DirectoryWatcher.class);
+    private static final Duration QUIET_PERIOD = Duration.ofSeconds(10);
+    /**
+     * Files that have been quiet for {@link #QUIET_PERIOD} are reported after this long even if other files keep changing, so that a busy
+     * directory does not postpone uploads indefinitely.
+     */
+    private static final Duration MAX_DELAY = Duration.ofMinutes(2);
+    private static final Duration POLL_INTERVAL = Duration.ofSeconds(1);
+
+    private final CurrentDateTimeProvider currentDateTimeProvider;
+    private final Map<WatchKey, Path> dirByWatchKey = new HashMap<>();
+    private final Map<Path, Instant> lastChangeInstantByPendingFile = new LinkedHashMap<>();
+    private Instant firstPendingChangeInstant;
+    private Instant lastChangeInstant;
+    private boolean changesLost;
+    private CompletableFuture<Void> lastHandlerFuture = completedFuture(null);
+    private WatchService watchService;
+    private Thread thread;
+
+    @Inject
+    DirectoryWatcher(CurrentDateTimeProvider currentDateTimeProvider) {
+        this.currentDateTimeProvider = checkNotNull(currentDateTimeProvider);
+    }
+
+    /**
+     * Handlers are called one at a time, each after the future returned by the previous one completes; the first one is called after
+     * {@code initialUploadFuture} completes, so that changes made during the initial upload are reported once it is done.
+     */
+    void start(Path rootDir, CompletableFuture<?> initialUploadFuture, Listener listener) {
+        checkState(thread == null, "already started");
+        watchService = getAsUnchecked(() -> rootDir.getFileSystem().newWatchService());
+        lastHandlerFuture = initialUploadFuture.handle((ignored, e) -> null);
+        registerRecursively(rootDir, false);
+        logger.info("Watching {} directories under {} for new files", dirByWatchKey.size(), rootDir);
+        thread = new Thread(() -> run(listener), "directory-watcher");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    void stop() {
+        if (thread != null) {
+            asUnchecked(watchService::close);
+            asUnchecked(thread::join);
+            thread = null;
+        }
+    }
+
+    private void run(Listener listener) {
+        try {
+            //noinspection InfiniteLoopStatement
+            while (true) {
+                var watchKey = watchService.poll(POLL_INTERVAL.toMillis(), MILLISECONDS);
+                if (watchKey != null) {
+                    processEvents(watchKey);
+                }
+                flushIfDue(listener);
+            }
+        } catch (ClosedWatchServiceException | InterruptedException e) {
+            logger.debug("Stopped watching", e);
+        }
+    }
+
+    private void processEvents(WatchKey watchKey) {
+        var dir = dirByWatchKey.get(watchKey);
+        for (var event : watchKey.pollEvents()) {
+            if (event.kind() == OVERFLOW) {
+                logger.info("Too many file system changes at once, some were lost; will rescan everything");
+                onChangesLost();
+            } else if (dir != null) {
+                var path = dir.resolve((Path) event.context());
+                if (Files.isDirectory(path, NOFOLLOW_LINKS)) {
+                    if (event.kind() == ENTRY_CREATE) {
+                        // files may have been added before the new directory was registered
+                        registerRecursively(path, true);
+                    }
+                    onChange();
+                } else {
+                    logger.debug("Changed: {}", path);
+                    onFileChanged(path);
+                }
+            }
+        }
+        if (!watchKey.reset()) {
+            dirByWatchKey.remove(watchKey);
+        }
+    }
+
+    void onFileChanged(Path file) {
+        lastChangeInstantByPendingFile.put(file, onChange());
+    }
+
+    void onChangesLost() {
+        changesLost = true;
+        onChange();
+    }
+
+    private Instant onChange() {
+        var now = currentDateTimeProvider.currentInstant();
+        if (firstPendingChangeInstant == null) {
+            firstPendingChangeInstant = now;
+        }
+        lastChangeInstant = now;
+        return now;
+    }
+
+    void flushIfDue(Listener listener) {
+        if (firstPendingChangeInstant == null || !lastHandlerFuture.isDone()) {
+            return;
+        }
+        var now = currentDateTimeProvider.currentInstant();
+        if (now.isBefore(lastChangeInstant.plus(QUIET_PERIOD)) && now.isBefore(firstPendingChangeInstant.plus(MAX_DELAY))) {
+            return;
+        }
+        Supplier<CompletableFuture<Void>> handler;
+        if (changesLost) {
+            handler = listener::onChangesLost;
+            lastChangeInstantByPendingFile.clear();
+            changesLost = false;
+        } else {
+            var quietSince = now.minus(QUIET_PERIOD);
+            var files = lastChangeInstantByPendingFile.entrySet().stream()
+                    .filter(entry -> !entry.getValue().isAfter(quietSince))
+                    .map(Map.Entry::getKey)
+                    .collect(toImmutableSet());
+            lastChangeInstantByPendingFile.keySet().removeAll(files);
+            handler = files.isEmpty() ? null : () -> listener.onFilesChanged(files);
+        }
+        if (lastChangeInstantByPendingFile.isEmpty()) {
+            firstPendingChangeInstant = null;
+            lastChangeInstant = null;
+        } else {
+            logger.debug("{} file(s) are still changing, will report them once they are quiet", lastChangeInstantByPendingFile.size());
+            firstPendingChangeInstant = now;
+        }
+        if (handler == null) {
+            return;
+        }
+        try {
+            // failures are the listener's to report; keep watching regardless
+            lastHandlerFuture = handler.get().exceptionally(e -> {
+                logger.debug("Failed to handle file system changes", e);
+                return null;
+            });
+        } catch (RuntimeException e) {
+            logger.error("Failed to handle file system changes", e);
+        }
+    }
+
+    private void registerRecursively(Path dir, boolean collectFiles) {
+        try {
+            Files.walkFileTree(dir, new SimpleFileVisitor<>() {
+                @Override
+                public FileVisitResult preVisitDirectory(Path subDir, BasicFileAttributes attrs) throws IOException {
+                    dirByWatchKey.put(subDir.register(watchService, ENTRY_CREATE, ENTRY_MODIFY), subDir);
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                    if (collectFiles && attrs.isRegularFile()) {
+                        onFileChanged(file);
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFileFailed(Path file, IOException exc) {
+                    logger.warn("Unable to watch {}: {}", file, exc.toString());
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        } catch (IOException e) {
+            if (!collectFiles) {
+                throw new UncheckedIOException(e);
+            }
+            // a new directory may be gone or renamed already
+            logger.warn("Unable to watch {}: {}", dir, e.toString());
+        }
+    }
+
+    interface Listener {
+        CompletableFuture<Void> onFilesChanged(Set<Path> files);
+
+        /**
+         * The file system dropped change events, so the whole tree needs to be rescanned.
+         */
+        CompletableFuture<Void> onChangesLost();
+    }
+}
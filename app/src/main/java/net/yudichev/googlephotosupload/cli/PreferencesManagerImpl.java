@@ -3,8 +3,10 @@ package net.yudichev.googlephotosupload.cli;
 import net.yudichev.googlephotosupload.core.Preferences;
 import net.yudichev.googlephotosupload.core.PreferencesManager;
 import net.yudichev.jiotty.common.varstore.VarStore;
+import org.apache.commons.cli.CommandLine;
 
 import javax.inject.Inject;
+import java.util.Optional;
 import java.util.function.Function;
 
 final class PreferencesManagerImpl implements PreferencesManager {
@@ -12,8 +14,17 @@ final class PreferencesManagerImpl implements PreferencesManager {
     private final Preferences preferences;
 
     @Inject
-    PreferencesManagerImpl(VarStore varStore) {
-        preferences = varStore.readValue(Preferences.class, VAR_STORE_KEY).orElseGet(() -> Preferences.builder().build());
+    PreferencesManagerImpl(VarStore varStore, CommandLine commandLine) {
+        var storedPreferences = varStore.readValue(Preferences.class, VAR_STORE_KEY).orElseGet(() -> Preferences.builder().build());
+        // validated by CliMain
+        var withUploadConcurrency = Optional.ofNullable(commandLine.getOptionValue('c'))
+                .map(Integer::parseInt)
+                .map(uploadConcurrency -> storedPreferences.withUploadConcurrency(uploadConcurrency))
+                .orElse(storedPreferences);
+        var withLazyState = commandLine.hasOption("lazy-state") ? withUploadConcurrency.withLazyUploadState(true) : withUploadConcurrency;
+        var withDeduplication = commandLine.hasOption("dedup-by-content") ? withLazyState.withDeduplicateByContent(true) : withLazyState;
+        var withIncrementalScan = commandLine.hasOption("incremental-scan") ? withDeduplication.withIncrementalScan(true) : withDeduplication;
+        preferences = commandLine.hasOption("refresh-albums") ? withIncrementalScan.withCloudAlbumCacheTtlHours(0) : withIncrementalScan;
     }
 
     @Override
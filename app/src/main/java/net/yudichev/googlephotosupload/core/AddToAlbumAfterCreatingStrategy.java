@@ -1,7 +1,6 @@
 package net.yudichev.googlephotosupload.core;
 
-import net.yudichev.jiotty.common.async.AsyncOperationRetry;
-import net.yudichev.jiotty.common.lang.CompletableFutures;
+import com.google.common.collect.ImmutableSet;
 import net.yudichev.jiotty.connector.google.photos.GoogleMediaItem;
 import net.yudichev.jiotty.connector.google.photos.GooglePhotosAlbum;
 
@@ -11,6 +10,7 @@ import java.nio.file.Path;
 import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
+import java.util.Set;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CompletionStage;
 import java.util.concurrent.Executor;
@@ -21,8 +21,10 @@ import java.util.stream.Stream;
 
 import static com.google.common.base.Preconditions.checkNotNull;
 import static com.google.common.collect.ImmutableList.toImmutableList;
+import static com.google.common.collect.ImmutableSet.toImmutableSet;
 import static com.google.common.collect.Lists.partition;
 import static java.util.Comparator.comparing;
+import static net.yudichev.googlephotosupload.core.ApiOperationClass.ALBUM_MODIFICATION;
 import static net.yudichev.googlephotosupload.core.Bindings.Backpressured;
 import static net.yudichev.googlephotosupload.core.GooglePhotosUploaderImpl.GOOGLE_PHOTOS_API_BATCH_SIZE;
 import static net.yudichev.jiotty.common.lang.CompletableFutures.toFutureOfListChaining;
@@ -30,19 +32,19 @@ import static net.yudichev.jiotty.common.lang.CompletableFutures.toFutureOfListC
 final class AddToAlbumAfterCreatingStrategy implements AddToAlbumStrategy {
     private final Provider<ExecutorService> executorServiceProvider;
     private final FatalUserCorrectableRemoteApiExceptionHandler fatalUserCorrectableHandler;
-    private final AsyncOperationRetry asyncOperationRetry;
+    private final ApiOperationRetry apiOperationRetry;
 
     @Inject
     AddToAlbumAfterCreatingStrategy(@Backpressured Provider<ExecutorService> executorServiceProvider,
                                     FatalUserCorrectableRemoteApiExceptionHandler fatalUserCorrectableHandler,
-                                    AsyncOperationRetry asyncOperationRetry) {
+                                    ApiOperationRetry apiOperationRetry) {
         this.executorServiceProvider = checkNotNull(executorServiceProvider);
         this.fatalUserCorrectableHandler = checkNotNull(fatalUserCorrectableHandler);
-        this.asyncOperationRetry = checkNotNull(asyncOperationRetry);
+        this.apiOperationRetry = checkNotNull(apiOperationRetry);
     }
 
     @Override
-    public CompletableFuture<Void> addToAlbum(CompletableFuture<List<PathState>> createMediaDataResultsFuture,
+    public CompletableFuture<Set<Path>> addToAlbum(CompletableFuture<List<PathState>> createMediaDataResultsFuture,
                                               Optional<GooglePhotosAlbum> googlePhotosAlbum,
                                               ProgressStatus fileProgressStatus,
                                               ProgressStatus directoryProgressStatus,
@@ -58,7 +60,7 @@ final class AddToAlbumAfterCreatingStrategy implements AddToAlbumStrategy {
                         directoryProgressStatus));
     }
 
-    private CompletionStage<Void> addToAlbum(Optional<GooglePhotosAlbum> googlePhotosAlbum,
+    private CompletionStage<Set<Path>> addToAlbum(Optional<GooglePhotosAlbum> googlePhotosAlbum,
                                              Stream<PathMediaItemOrError> pathMediaItemOrErrorStream,
                                              ProgressStatus fileProgressStatus,
                                              ProgressStatus directoryProgressStatus) {
@@ -73,23 +75,24 @@ final class AddToAlbumAfterCreatingStrategy implements AddToAlbumStrategy {
                             // (see https://github.com/ylexus/jiotty-photos-uploader/issues/34#issuecomment-639876779)
                             .distinct()
                             .collect(toImmutableList());
-                    return asyncOperationRetry.withBackOffAndRetry("add items to album",
+                    return apiOperationRetry.withBackOffAndRetry(ALBUM_MODIFICATION, "add items to album", executorServiceProvider.get(),
                                     () -> partition(mediaItemsToAddToAlbum, GOOGLE_PHOTOS_API_BATCH_SIZE).stream()
                                             .collect(toFutureOfListChaining(mediaItems -> album
                                                     .addMediaItems(mediaItems, statusUpdatingExecutor(album, directoryProgressStatus))))
-                                            .<Void>thenApply(ignored -> null),
+                                            .<Set<Path>>thenApply(ignored -> ImmutableSet.of()),
                                     fileProgressStatus::onBackoffDelay)
                             .exceptionallyCompose(exception -> fatalUserCorrectableHandler.handle(
                                             "adding items to album " + album.getTitle(), exception)
                                     .map(errorMessage -> {
-                                        pathMediaItemOrErrors.stream()
+                                        var paths = pathMediaItemOrErrors.stream()
                                                 .map(PathMediaItemOrError::path)
-                                                .forEach(path -> fileProgressStatus.addFailure(KeyedError.of(path, errorMessage)));
-                                        return CompletableFutures.<Void>completedFuture();
+                                                .collect(toImmutableSet());
+                                        paths.forEach(path -> fileProgressStatus.addFailure(KeyedError.of(path, errorMessage)));
+                                        return CompletableFuture.<Set<Path>>completedFuture(paths);
                                     })
                                     .orElseThrow(() -> new RuntimeException(exception)));
                 })
-                .orElseGet(CompletableFutures::completedFuture);
+                .orElseGet(() -> CompletableFuture.completedFuture(ImmutableSet.of()));
     }
 
     private Executor statusUpdatingExecutor(GooglePhotosAlbum album, ProgressStatus directoryProgressStatus) {
@@ -5,12 +5,16 @@ import net.yudichev.jiotty.connector.google.photos.GooglePhotosAlbum;
 import java.nio.file.Path;
 import java.util.List;
 import java.util.Optional;
+import java.util.Set;
 import java.util.concurrent.CompletableFuture;
 import java.util.function.BiFunction;
 import java.util.function.Function;
 
 interface AddToAlbumStrategy {
-    CompletableFuture<Void> addToAlbum(CompletableFuture<List<PathState>> createMediaDataResultsFuture,
+    /**
+     * @return files whose media items were created, but could not be added to the album
+     */
+    CompletableFuture<Set<Path>> addToAlbum(CompletableFuture<List<PathState>> createMediaDataResultsFuture,
                                        Optional<GooglePhotosAlbum> googlePhotosAlbum,
                                        ProgressStatus fileProgressStatus,
                                        ProgressStatus directoryProgressStatus,
@@ -1,10 +1,12 @@
 package net.yudichev.googlephotosupload.core;
 
+import com.google.common.collect.ImmutableSet;
 import net.yudichev.jiotty.connector.google.photos.GooglePhotosAlbum;
 
 import java.nio.file.Path;
 import java.util.List;
 import java.util.Optional;
+import java.util.Set;
 import java.util.concurrent.CompletableFuture;
 import java.util.function.BiFunction;
 import java.util.function.Function;
@@ -15,7 +17,7 @@ import static net.yudichev.jiotty.common.lang.CompletableFutures.toFutureOfList;
 
 final class AddToAlbumWhileCreatingStrategy implements AddToAlbumStrategy {
     @Override
-    public CompletableFuture<Void> addToAlbum(CompletableFuture<List<PathState>> createMediaDataResultsFuture,
+    public CompletableFuture<Set<Path>> addToAlbum(CompletableFuture<List<PathState>> createMediaDataResultsFuture,
                                               Optional<GooglePhotosAlbum> googlePhotosAlbum,
                                               ProgressStatus fileProgressStatus,
                                               ProgressStatus directoryProgressStatus,
@@ -28,6 +30,7 @@ final class AddToAlbumWhileCreatingStrategy implements AddToAlbumStrategy {
                             return createMediaItems.apply(googlePhotosAlbum.map(GooglePhotosAlbum::getId), pathStates);
                         })
                         .collect(toFutureOfList())
-                        .thenApply(voids -> null));
+                        // items are created in the album, so there are none that were created but not added
+                        .<Set<Path>>thenApply(lists -> ImmutableSet.of()));
     }
 }
\ No newline at end of file
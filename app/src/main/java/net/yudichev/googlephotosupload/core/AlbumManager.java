@@ -2,11 +2,25 @@ package net.yudichev.googlephotosupload.core;
 
 import net.yudichev.jiotty.connector.google.photos.GooglePhotosAlbum;
 
-import java.util.List;
-import java.util.Map;
+import java.util.Optional;
 import java.util.concurrent.CompletableFuture;
 
 interface AlbumManager {
-    CompletableFuture<Map<String, GooglePhotosAlbum>> listAlbumsByTitle(List<AlbumDirectory> albumDirectories,
-                                                                        Map<String, List<GooglePhotosAlbum>> cloudAlbumsByTitle);
+    AlbumReconciler newReconciler();
+
+    /**
+     * Resolves Google Photos albums for directories one by one as they are discovered; directories with the same album title share the album.
+     * Cloud albums are only listed once the first directory that needs an album is discovered, and not at all if none does.
+     */
+    interface AlbumReconciler {
+        /**
+         * @return the album to upload the directory into, or empty if the directory does not correspond to an album (the root)
+         */
+        CompletableFuture<Optional<GooglePhotosAlbum>> albumFor(AlbumDirectory albumDirectory);
+
+        /**
+         * Also cancels listing of cloud albums if it is still in progress.
+         */
+        void close(boolean success);
+    }
 }
@@ -1,10 +1,11 @@
 package net.yudichev.googlephotosupload.core;
 
 import com.google.api.gax.rpc.InvalidArgumentException;
-import com.google.common.collect.ImmutableMap;
-import net.yudichev.jiotty.common.async.AsyncOperationRetry;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
 import net.yudichev.jiotty.common.inject.BaseLifecycleComponent;
 import net.yudichev.jiotty.common.lang.CompletableFutures;
+import net.yudichev.jiotty.common.time.CurrentDateTimeProvider;
 import net.yudichev.jiotty.connector.google.photos.GoogleMediaItem;
 import net.yudichev.jiotty.connector.google.photos.GooglePhotosAlbum;
 import net.yudichev.jiotty.connector.google.photos.GooglePhotosClient;
@@ -15,46 +16,69 @@ import javax.inject.Inject;
 import javax.inject.Provider;
 import java.net.URL;
 import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
 import java.util.*;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
-import java.util.function.Function;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.IntConsumer;
 import java.util.function.LongConsumer;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
-import java.util.stream.IntStream;
 
 import static com.google.common.base.Preconditions.checkNotNull;
 import static com.google.common.base.Throwables.getCausalChain;
 import static com.google.common.collect.ImmutableList.toImmutableList;
-import static com.google.common.collect.ImmutableMap.toImmutableMap;
-import static java.lang.Math.min;
+import static com.google.common.collect.ImmutableSet.toImmutableSet;
+import static java.lang.Math.max;
 import static java.util.concurrent.CompletableFuture.completedFuture;
-import static net.yudichev.googlephotosupload.core.Bindings.Backpressured;
+import static java.util.concurrent.CompletableFuture.failedFuture;
+import static java.util.function.Function.identity;
+import static net.yudichev.googlephotosupload.core.ApiOperationClass.ALBUM_MODIFICATION;
+import static net.yudichev.googlephotosupload.core.ApiOperationClass.READ;
+import static net.yudichev.googlephotosupload.core.Bindings.AlbumReconciliation;
 import static net.yudichev.jiotty.common.lang.CompletableFutures.toFutureOfList;
+import static net.yudichev.jiotty.common.lang.Locks.inLock;
 import static net.yudichev.jiotty.common.lang.MoreThrowables.getAsUnchecked;
 
 final class AlbumManagerImpl extends BaseLifecycleComponent implements AlbumManager {
     private static final Logger logger = LoggerFactory.getLogger(AlbumManagerImpl.class);
+    private static final int MAX_ITEMS_PER_REQUEST = 49;
+    /**
+     * Per primary album, however many duplicates are merged into it; keeps the number of concurrent album modification requests within what the
+     * API tolerates.
+     */
+    static final int MAX_IN_FLIGHT_MERGE_BATCHES = 4;
 
     private final GooglePhotosClient googlePhotosClient;
     private final Provider<ExecutorService> executorServiceProvider;
-    private final AsyncOperationRetry asyncOperationRetry;
+    private final ApiOperationRetry apiOperationRetry;
     private final ProgressStatusFactory progressStatusFactory;
     private final ResourceBundle resourceBundle;
+    private final CloudAlbumsProvider cloudAlbumsProvider;
+    private final CurrentDateTimeProvider currentDateTimeProvider;
 
     private volatile ExecutorService executorService;
 
     @Inject
     AlbumManagerImpl(GooglePhotosClient googlePhotosClient,
-                     @Backpressured Provider<ExecutorService> executorServiceProvider,
-                     AsyncOperationRetry asyncOperationRetry,
+                     @AlbumReconciliation Provider<ExecutorService> executorServiceProvider,
+                     ApiOperationRetry apiOperationRetry,
                      ProgressStatusFactory progressStatusFactory,
-                     ResourceBundle resourceBundle) {
+                     ResourceBundle resourceBundle,
+                     CloudAlbumsProvider cloudAlbumsProvider,
+                     CurrentDateTimeProvider currentDateTimeProvider) {
         this.googlePhotosClient = checkNotNull(googlePhotosClient);
         this.executorServiceProvider = checkNotNull(executorServiceProvider);
-        this.asyncOperationRetry = checkNotNull(asyncOperationRetry);
+        this.apiOperationRetry = checkNotNull(apiOperationRetry);
         this.progressStatusFactory = checkNotNull(progressStatusFactory);
         this.resourceBundle = checkNotNull(resourceBundle);
+        this.cloudAlbumsProvider = checkNotNull(cloudAlbumsProvider);
+        this.currentDateTimeProvider = checkNotNull(currentDateTimeProvider);
     }
 
     @Override
@@ -63,33 +87,10 @@ final class AlbumManagerImpl extends BaseLifecycleComponent implements AlbumMana
     }
 
     @Override
-    public CompletableFuture<Map<String, GooglePhotosAlbum>> listAlbumsByTitle(List<AlbumDirectory> albumDirectories,
-                                                                               Map<String, List<GooglePhotosAlbum>> cloudAlbumsByTitle) {
+    public AlbumReconciler newReconciler() {
         checkStarted();
-        if (albumDirectories.isEmpty()) {
-            return completedFuture(ImmutableMap.of());
-        }
-        // root directory is excluded from progress as it does not need to be reconciled
-        var reconcilableAlbumCount = albumDirectories.size() - 1;
-        logger.info("Reconciling {} albums(s) with Google Photos, may take a bit of time...", reconcilableAlbumCount);
-        var progressStatus = progressStatusFactory.create(
-                resourceBundle.getString("albumManagerProgressStatusTitle"),
-                Optional.of(reconcilableAlbumCount));
-        return albumDirectories.stream()
-                .map(albumDirectory -> {
-                    progressStatus.updateDescription(albumDirectory.path().toAbsolutePath().toString());
-                    return albumDirectory.albumTitle()
-                            .map(albumTitle -> reconcile(cloudAlbumsByTitle, albumTitle, albumDirectory.path(), progressStatus, progressStatus::onBackoffDelay)
-                                    .whenComplete((album, e) -> progressStatus.incrementSuccess()));
-                })
-                .filter(Optional::isPresent)
-                .map(Optional::get)
-                .collect(toFutureOfList())
-                .<Map<String, GooglePhotosAlbum>>thenApply(googlePhotosAlbums -> googlePhotosAlbums.stream()
-                        .collect(toImmutableMap(
-                                GooglePhotosAlbum::getTitle,
-                                Function.identity())))
-                .whenComplete((ignored, e) -> progressStatus.close(e == null));
+        var progressStatus = progressStatusFactory.create(resourceBundle.getString("albumManagerProgressStatusTitle"), Optional.of(0));
+        return new AlbumReconcilerImpl(progressStatus);
     }
 
     private static String mediaItemsToIds(List<GoogleMediaItem> items) {
@@ -100,17 +101,50 @@ final class AlbumManagerImpl extends BaseLifecycleComponent implements AlbumMana
                                                              List<GooglePhotosAlbum> albumsToBeMerged,
                                                              ProgressStatus progressStatus,
                                                              LongConsumer backoffEventConsumer) {
-        return getItemsInAlbum(primaryAlbum, backoffEventConsumer)
-                .thenCompose(itemsInPrimaryAlbum -> {
+        // contents of all albums are loaded concurrently; moving items out of an album starts as soon as its and the primary's contents are known
+        var idsInPrimaryAlbumFuture = getItemsInAlbum(primaryAlbum, backoffEventConsumer)
+                .thenApply(itemsInPrimaryAlbum -> {
                     if (logger.isDebugEnabled()) {
                         logger.debug("Items currently in primary album: {}", mediaItemsToIds(itemsInPrimaryAlbum));
                     }
-                    return albumsToBeMerged.stream()
-                            .map(albumToBeMerged -> moveItems(albumToBeMerged, primaryAlbum, itemsInPrimaryAlbum, backoffEventConsumer)
-                                    .thenRun(() -> removeAlbum(albumToBeMerged, progressStatus)))
-                            .collect(toFutureOfList())
-                            .thenApply(list -> primaryAlbum);
+                    return itemsInPrimaryAlbum.stream()
+                            .map(GoogleMediaItem::getId)
+                            .collect(toImmutableSet());
                 });
+        var mergeProgressStatus = progressStatusFactory.create(
+                String.format(resourceBundle.getString("albumManagerMergeProgressTitle"), primaryAlbum.getTitle()),
+                Optional.of(0));
+        var startInstant = currentDateTimeProvider.currentInstant();
+        var mergeLanes = new MergeLanes(MAX_IN_FLIGHT_MERGE_BATCHES);
+        var totalItemCount = new AtomicInteger();
+        var movedItemCount = new AtomicInteger();
+        IntConsumer movedItemCountConsumer = count -> {
+            mergeProgressStatus.incrementSuccessBy(count);
+            mergeProgressStatus.updateDescription(String.format(resourceBundle.getString("albumManagerMergeThroughput"),
+                    itemsPerSecond(movedItemCount.addAndGet(count), startInstant)));
+        };
+        var result = albumsToBeMerged.stream()
+                .map(albumToBeMerged -> getItemsInAlbum(albumToBeMerged, backoffEventConsumer)
+                        .thenCombine(idsInPrimaryAlbumFuture, (itemsInSourceAlbum, idsInPrimaryAlbum) -> {
+                            mergeProgressStatus.updateTotal(totalItemCount.addAndGet(itemsInSourceAlbum.size()));
+                            return moveItems(albumToBeMerged, itemsInSourceAlbum, primaryAlbum, idsInPrimaryAlbum, mergeLanes,
+                                    movedItemCountConsumer, backoffEventConsumer);
+                        })
+                        .thenCompose(identity())
+                        .thenRun(() -> removeAlbum(albumToBeMerged, progressStatus)))
+                .collect(toFutureOfList())
+                .thenApply(list -> primaryAlbum);
+        result.whenComplete((ignored, e) -> {
+            logger.info("Moved {} item(s) from {} duplicate album(s) into {} at {} item(s)/s",
+                    movedItemCount.get(), albumsToBeMerged.size(), primaryAlbum.getId(), itemsPerSecond(movedItemCount.get(), startInstant));
+            mergeProgressStatus.close(e == null);
+        });
+        return result;
+    }
+
+    private long itemsPerSecond(int itemCount, Instant startInstant) {
+        var elapsedMillis = Duration.between(startInstant, currentDateTimeProvider.currentInstant()).toMillis();
+        return itemCount * 1000L / max(1, elapsedMillis);
     }
 
     private void removeAlbum(GooglePhotosAlbum albumToBeMerged, ProgressStatus progressStatus) {
@@ -121,53 +155,59 @@ final class AlbumManagerImpl extends BaseLifecycleComponent implements AlbumMana
     }
 
     private CompletableFuture<Void> moveItems(GooglePhotosAlbum sourceAlbum,
+                                              List<GoogleMediaItem> itemsInSourceAlbum,
                                               GooglePhotosAlbum destinationAlbum,
-                                              List<GoogleMediaItem> itemsInDestinationAlbum,
+                                              Set<String> idsInDestinationAlbum,
+                                              MergeLanes mergeLanes,
+                                              IntConsumer movedItemCountConsumer,
                                               LongConsumer backoffEventConsumer) {
-        var maxItemsPerRequest = 49;
-        return getItemsInAlbum(sourceAlbum, backoffEventConsumer).thenCompose(itemsInSourceAlbum -> itemsInSourceAlbum.isEmpty() ?
-                CompletableFutures.completedFuture() :
-                IntStream.range(0, itemsInSourceAlbum.size() / maxItemsPerRequest + 1)
-                        .mapToObj(groupNumber -> itemsInSourceAlbum.subList(
-                                groupNumber * maxItemsPerRequest,
-                                min((groupNumber + 1) * maxItemsPerRequest, itemsInSourceAlbum.size())))
-                        .filter(itemsInGroup -> !itemsInGroup.isEmpty())
-                        .map(itemsInGroup -> {
-                            logger.debug("Moving a batch of {} items for {} from {} to {}",
-                                    itemsInGroup.size(), sourceAlbum.getTitle(), sourceAlbum.getId(), destinationAlbum.getId());
-                            var itemsToAdd = without(itemsInGroup, itemsInDestinationAlbum);
-                            CompletableFuture<Void> addFuture;
-                            if (itemsToAdd.isEmpty()) {
-                                addFuture = CompletableFutures.completedFuture();
-                            } else {
-                                if (logger.isDebugEnabled()) {
-                                    logger.debug("Add to album {} items {}", destinationAlbum.getId(), mediaItemsToIds(itemsToAdd));
-                                }
-                                var addOperationName = "add " + itemsToAdd.size() + " items for " + sourceAlbum.getTitle() +
-                                        " to album " + destinationAlbum.getId();
-                                addFuture = asyncOperationRetry.withBackOffAndRetry(addOperationName,
-                                        () -> withInvalidMediaItemErrorIgnored(addOperationName, destinationAlbum.addMediaItems(itemsToAdd, executorService)),
-                                        backoffEventConsumer);
-                            }
-                            var removeOperationName = "remove " + itemsInGroup.size() + " items for " + sourceAlbum.getTitle() +
-                                    " from album " + sourceAlbum.getId();
-                            return addFuture.thenCompose(aVoid -> asyncOperationRetry.withBackOffAndRetry(removeOperationName,
-                                    () -> withInvalidMediaItemErrorIgnored(removeOperationName, sourceAlbum.removeMediaItems(itemsInGroup, executorService)),
-                                    backoffEventConsumer));
-                        })
-                        .collect(toFutureOfList())
-                        .thenApply(list -> null));
+        return Lists.partition(itemsInSourceAlbum, MAX_ITEMS_PER_REQUEST).stream()
+                .map(itemsInGroup -> mergeLanes.submit(() ->
+                        moveBatch(sourceAlbum, itemsInGroup, destinationAlbum, idsInDestinationAlbum, backoffEventConsumer)
+                                .thenRun(() -> movedItemCountConsumer.accept(itemsInGroup.size()))))
+                .collect(toFutureOfList())
+                .thenApply(list -> null);
     }
 
-    private static List<GoogleMediaItem> without(List<GoogleMediaItem> mediaItems, List<GoogleMediaItem> itemsToExclude) {
-        List<GoogleMediaItem> result = new ArrayList<>(mediaItems);
-        result.removeAll(itemsToExclude);
-        return result;
+    private CompletableFuture<Void> moveBatch(GooglePhotosAlbum sourceAlbum,
+                                              List<GoogleMediaItem> itemsInGroup,
+                                              GooglePhotosAlbum destinationAlbum,
+                                              Set<String> idsInDestinationAlbum,
+                                              LongConsumer backoffEventConsumer) {
+        logger.debug("Moving a batch of {} items for {} from {} to {}",
+                itemsInGroup.size(), sourceAlbum.getTitle(), sourceAlbum.getId(), destinationAlbum.getId());
+        var itemsToAdd = without(itemsInGroup, idsInDestinationAlbum);
+        CompletableFuture<Void> addFuture;
+        if (itemsToAdd.isEmpty()) {
+            addFuture = CompletableFutures.completedFuture();
+        } else {
+            if (logger.isDebugEnabled()) {
+                logger.debug("Add to album {} items {}", destinationAlbum.getId(), mediaItemsToIds(itemsToAdd));
+            }
+            var addOperationName = "add " + itemsToAdd.size() + " items for " + sourceAlbum.getTitle() +
+                    " to album " + destinationAlbum.getId();
+            addFuture = apiOperationRetry.withBackOffAndRetry(ALBUM_MODIFICATION, addOperationName, executorService,
+                    () -> withInvalidMediaItemErrorIgnored(addOperationName, destinationAlbum.addMediaItems(itemsToAdd, executorService)),
+                    backoffEventConsumer);
+        }
+        var removeOperationName = "remove " + itemsInGroup.size() + " items for " + sourceAlbum.getTitle() +
+                " from album " + sourceAlbum.getId();
+        return addFuture.thenCompose(aVoid -> apiOperationRetry.withBackOffAndRetry(ALBUM_MODIFICATION, removeOperationName, executorService,
+                () -> withInvalidMediaItemErrorIgnored(removeOperationName, sourceAlbum.removeMediaItems(itemsInGroup, executorService)),
+                backoffEventConsumer));
+    }
+
+    private static List<GoogleMediaItem> without(List<GoogleMediaItem> mediaItems, Set<String> idsToExclude) {
+        return mediaItems.stream()
+                .filter(mediaItem -> !idsToExclude.contains(mediaItem.getId()))
+                .collect(toImmutableList());
     }
 
     private CompletableFuture<List<GoogleMediaItem>> getItemsInAlbum(GooglePhotosAlbum sourceAlbum, LongConsumer backoffEventConsumer) {
-        return asyncOperationRetry.withBackOffAndRetry(
+        return apiOperationRetry.withBackOffAndRetry(
+                READ,
                 "get media items in album " + sourceAlbum.getId(),
+                executorService,
                 () -> sourceAlbum.getMediaItems(executorService),
                 backoffEventConsumer);
     }
@@ -177,7 +217,17 @@ final class AlbumManagerImpl extends BaseLifecycleComponent implements AlbumMana
                                                            Path path,
                                                            ProgressStatus progressStatus,
                                                            LongConsumer backoffEventConsumer) {
-        return Optional.ofNullable(cloudAlbumsByTitle.get(filesystemAlbumTitle))
+        // a title missing from the cache is created without listing the albums again; cached albums deleted since are created again
+        return cloudAlbumsProvider.resolveAlbums(cloudAlbumsByTitle.getOrDefault(filesystemAlbumTitle, ImmutableList.of()), backoffEventConsumer)
+                .thenCompose(cloudAlbums -> reconcileWithCloudAlbums(cloudAlbums, filesystemAlbumTitle, path, progressStatus, backoffEventConsumer));
+    }
+
+    private CompletableFuture<GooglePhotosAlbum> reconcileWithCloudAlbums(List<GooglePhotosAlbum> cloudAlbums,
+                                                                          String filesystemAlbumTitle,
+                                                                          Path path,
+                                                                          ProgressStatus progressStatus,
+                                                                          LongConsumer backoffEventConsumer) {
+        return Optional.of(cloudAlbums)
                 .flatMap(albums -> {
                     var writableAlbums = albums.stream()
                             .filter(googlePhotosAlbum -> {
@@ -217,13 +267,95 @@ final class AlbumManagerImpl extends BaseLifecycleComponent implements AlbumMana
                 })
                 .orElseGet(() -> {
                     logger.info("Creating album [{}] for path [{}]", filesystemAlbumTitle, path);
-                    return asyncOperationRetry.withBackOffAndRetry(
-                            "create album " + filesystemAlbumTitle,
-                            () -> googlePhotosClient.createAlbum(filesystemAlbumTitle, executorService),
-                            backoffEventConsumer);
+                    return apiOperationRetry.withBackOffAndRetry(
+                                    ALBUM_MODIFICATION,
+                                    "create album " + filesystemAlbumTitle,
+                                    executorService,
+                                    () -> googlePhotosClient.createAlbum(filesystemAlbumTitle, executorService),
+                                    backoffEventConsumer)
+                            .thenApply(album -> {
+                                cloudAlbumsProvider.onAlbumCreated(album);
+                                return album;
+                            });
                 });
     }
 
+    /**
+     * Spreads the batches of all albums merged into one album over a fixed number of lanes, each adding and then removing its batches one after
+     * another, so that one batch is being added while another is being removed, and no more batches are in flight than there are lanes.
+     */
+    private static final class MergeLanes {
+        private final Lock lock = new ReentrantLock();
+        private final List<CompletableFuture<Void>> laneTails;
+        private int nextLane;
+
+        MergeLanes(int laneCount) {
+            laneTails = new ArrayList<>(Collections.nCopies(laneCount, CompletableFutures.completedFuture()));
+        }
+
+        CompletableFuture<Void> submit(Supplier<CompletableFuture<Void>> batch) {
+            return inLock(lock, () -> {
+                var lane = nextLane;
+                nextLane = (nextLane + 1) % laneTails.size();
+                var batchFuture = laneTails.get(lane).thenCompose(ignored -> batch.get());
+                laneTails.set(lane, batchFuture);
+                return batchFuture;
+            });
+        }
+    }
+
+    private final class AlbumReconcilerImpl implements AlbumReconciler {
+        private final ProgressStatus progressStatus;
+        private final Map<String, CompletableFuture<GooglePhotosAlbum>> albumFutureByTitle = new ConcurrentHashMap<>();
+        private final AtomicInteger albumCount = new AtomicInteger();
+        private final Lock lock = new ReentrantLock();
+        private CompletableFuture<Map<String, List<GooglePhotosAlbum>>> cloudAlbumsByTitleFuture;
+        private boolean closed;
+
+        AlbumReconcilerImpl(ProgressStatus progressStatus) {
+            this.progressStatus = checkNotNull(progressStatus);
+        }
+
+        @Override
+        public CompletableFuture<Optional<GooglePhotosAlbum>> albumFor(AlbumDirectory albumDirectory) {
+            return albumDirectory.albumTitle()
+                    .map(albumTitle -> albumFutureByTitle.computeIfAbsent(albumTitle, title -> {
+                        progressStatus.updateTotal(albumCount.incrementAndGet());
+                        progressStatus.updateDescription(albumDirectory.path().toAbsolutePath().toString());
+                        return cloudAlbumsByTitle()
+                                .thenCompose(cloudAlbumsByTitle -> reconcile(cloudAlbumsByTitle, title, albumDirectory.path(), progressStatus,
+                                        progressStatus::onBackoffDelay))
+                                .whenComplete((album, e) -> progressStatus.incrementSuccess());
+                    }).thenApply(Optional::of))
+                    .orElseGet(() -> completedFuture(Optional.empty()));
+        }
+
+        @Override
+        public void close(boolean success) {
+            inLock(lock, () -> {
+                closed = true;
+                if (cloudAlbumsByTitleFuture != null) {
+                    cloudAlbumsByTitleFuture.cancel(true);
+                }
+            });
+            logger.info("Reconciled {} album(s) with Google Photos", albumCount.get());
+            progressStatus.close(success);
+        }
+
+        private CompletableFuture<Map<String, List<GooglePhotosAlbum>>> cloudAlbumsByTitle() {
+            return inLock(lock, () -> {
+                if (closed) {
+                    // the scan may still be emitting directories after a failure
+                    return failedFuture(new IllegalStateException("reconciler is closed"));
+                }
+                if (cloudAlbumsByTitleFuture == null) {
+                    cloudAlbumsByTitleFuture = cloudAlbumsProvider.listCloudAlbums();
+                }
+                return cloudAlbumsByTitleFuture;
+            });
+        }
+    }
+
     private static CompletableFuture<Void> withInvalidMediaItemErrorIgnored(String operationName, CompletableFuture<Void> action) {
         return action
                 .exceptionally(exception -> {
@@ -0,0 +1,26 @@
+package net.yudichev.googlephotosupload.core;
+
+import javax.inject.Inject;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Runs the Google Photos API calls that create albums and merge duplicate albums; albums are independent, so these run in parallel with each
+ * other and with the uploads.
+ */
+final class AlbumReconciliationExecutorServiceProvider extends BackpressuredExecutorServiceProvider {
+    private static final int DEFAULT_ALBUM_RECONCILIATION_CONCURRENCY = 4;
+
+    private final PreferencesManager preferencesManager;
+
+    @Inject
+    AlbumReconciliationExecutorServiceProvider(PreferencesManager preferencesManager) {
+        super("album-pool-%s");
+        this.preferencesManager = checkNotNull(preferencesManager);
+    }
+
+    @Override
+    protected int threadCount() {
+        return preferencesManager.get().albumReconciliationConcurrency().orElse(DEFAULT_ALBUM_RECONCILIATION_CONCURRENCY);
+    }
+}
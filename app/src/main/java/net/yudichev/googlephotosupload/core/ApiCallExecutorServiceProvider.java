@@ -0,0 +1,25 @@
+package net.yudichev.googlephotosupload.core;
+
+import javax.inject.Inject;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Runs lightweight Google Photos API calls: creation of media items, album listing, creation and modification.
+ */
+final class ApiCallExecutorServiceProvider extends BackpressuredExecutorServiceProvider {
+    private static final int DEFAULT_API_CALL_CONCURRENCY = 1;
+
+    private final PreferencesManager preferencesManager;
+
+    @Inject
+    ApiCallExecutorServiceProvider(PreferencesManager preferencesManager) {
+        super("api-pool-%s");
+        this.preferencesManager = checkNotNull(preferencesManager);
+    }
+
+    @Override
+    protected int threadCount() {
+        return preferencesManager.get().apiCallConcurrency().orElse(DEFAULT_API_CALL_CONCURRENCY);
+    }
+}
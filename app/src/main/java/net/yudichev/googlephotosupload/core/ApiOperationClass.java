@@ -0,0 +1,22 @@
+package net.yudichev.googlephotosupload.core;
+
+/**
+ * Google Photos API operations grouped by the quota they draw from. Each class is rate limited and backs off on its own, so that, for
+ * example, throttled album modifications do not slow down uploads of media data.
+ */
+enum ApiOperationClass {
+    MEDIA_DATA_UPLOAD(10),
+    MEDIA_ITEM_CREATION(5),
+    ALBUM_MODIFICATION(5),
+    READ(10);
+
+    private final int requestsPerSecond;
+
+    ApiOperationClass(int requestsPerSecond) {
+        this.requestsPerSecond = requestsPerSecond;
+    }
+
+    int requestsPerSecond() {
+        return requestsPerSecond;
+    }
+}
@@ -0,0 +1,20 @@
+package net.yudichev.googlephotosupload.core;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.function.LongConsumer;
+import java.util.function.Supplier;
+
+interface ApiOperationRetry {
+    /**
+     * Like {@link net.yudichev.jiotty.common.async.AsyncOperationRetry#withBackOffAndRetry(String, Supplier, LongConsumer)}, but each attempt
+     * also waits for the rate limit of the operation class, and back off is tracked per operation class.
+     *
+     * @param executor the executor of the operation, on which the action is retried once a wait is over
+     */
+    <T> CompletableFuture<T> withBackOffAndRetry(ApiOperationClass operationClass,
+                                                 String operationName,
+                                                 Executor executor,
+                                                 Supplier<? extends CompletableFuture<T>> action,
+                                                 LongConsumer backoffEventConsumer);
+}
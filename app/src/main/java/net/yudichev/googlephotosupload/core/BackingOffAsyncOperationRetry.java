@@ -0,0 +1,120 @@
+package net.yudichev.googlephotosupload.core;
+
+import com.google.inject.BindingAnnotation;
+import net.yudichev.jiotty.common.async.AsyncOperationFailureHandler;
+import net.yudichev.jiotty.common.async.AsyncOperationRetry;
+import net.yudichev.jiotty.common.lang.CompletableFutures;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.inject.Inject;
+import javax.inject.Provider;
+import java.lang.annotation.Retention;
+import java.lang.annotation.Target;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.LongConsumer;
+import java.util.function.Supplier;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.collect.Maps.immutableEnumMap;
+import static java.lang.annotation.ElementType.*;
+import static java.lang.annotation.RetentionPolicy.RUNTIME;
+import static java.util.concurrent.CompletableFuture.delayedExecutor;
+import static java.util.concurrent.CompletableFuture.runAsync;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+/**
+ * Retries after the delay advised by the {@link AsyncOperationFailureHandler}, without blocking any thread while waiting, so that a long
+ * back off of one operation does not hold up the threads of other operations in flight. Each {@link ApiOperationClass} has its own back off
+ * state and rate limit; operations of no class (not Google Photos API) are only backed off, sharing the singleton
+ * {@link AsyncOperationFailureHandler}. Bound as a singleton, so that the back off and rate limit of a class apply to all its callers.
+ */
+final class BackingOffAsyncOperationRetry implements AsyncOperationRetry, ApiOperationRetry {
+    private static final Logger logger = LoggerFactory.getLogger(BackingOffAsyncOperationRetry.class);
+
+    private final AsyncOperationFailureHandler unclassifiedBackOffHandler;
+    private final Map<ApiOperationClass, AsyncOperationFailureHandler> backOffHandlerByOperationClass;
+    private final Map<ApiOperationClass, Optional<TokenBucket>> rateLimiterByOperationClass;
+
+    @Inject
+    BackingOffAsyncOperationRetry(AsyncOperationFailureHandler unclassifiedBackOffHandler,
+                                  Provider<BackingOffRemoteApiExceptionHandlerImpl> backOffHandlerProvider,
+                                  @ApiRateLimiting boolean rateLimitingEnabled) {
+        this.unclassifiedBackOffHandler = checkNotNull(unclassifiedBackOffHandler);
+        var backOffHandlers = new EnumMap<ApiOperationClass, AsyncOperationFailureHandler>(ApiOperationClass.class);
+        var rateLimiters = new EnumMap<ApiOperationClass, Optional<TokenBucket>>(ApiOperationClass.class);
+        for (var operationClass : ApiOperationClass.values()) {
+            backOffHandlers.put(operationClass, checkNotNull(backOffHandlerProvider.get()));
+            rateLimiters.put(operationClass, rateLimitingEnabled ?
+                    Optional.of(new TokenBucket(operationClass.requestsPerSecond(), System::nanoTime)) :
+                    Optional.empty());
+        }
+        backOffHandlerByOperationClass = immutableEnumMap(backOffHandlers);
+        rateLimiterByOperationClass = immutableEnumMap(rateLimiters);
+    }
+
+    /**
+     * @return a future that completes on the given executor once the back off delay elapses
+     */
+    private static CompletableFuture<Void> afterBackOff(long backOffMs, Executor executor) {
+        return backOffMs <= 0 ? CompletableFutures.completedFuture() : runAsync(() -> {}, delayedExecutor(backOffMs, MILLISECONDS, executor));
+    }
+
+    @Override
+    public <T> CompletableFuture<T> withBackOffAndRetry(String operationName,
+                                                        Supplier<? extends CompletableFuture<T>> action,
+                                                        LongConsumer backoffEventConsumer) {
+        // the operation's executor is not known here
+        return withBackOffAndRetry(unclassifiedBackOffHandler, Optional.empty(), operationName, ForkJoinPool.commonPool(), action, backoffEventConsumer);
+    }
+
+    @Override
+    public <T> CompletableFuture<T> withBackOffAndRetry(ApiOperationClass operationClass,
+                                                        String operationName,
+                                                        Executor executor,
+                                                        Supplier<? extends CompletableFuture<T>> action,
+                                                        LongConsumer backoffEventConsumer) {
+        return withBackOffAndRetry(backOffHandlerByOperationClass.get(operationClass),
+                rateLimiterByOperationClass.get(operationClass),
+                operationName,
+                executor,
+                action,
+                backoffEventConsumer);
+    }
+
+    private static <T> CompletableFuture<T> withBackOffAndRetry(AsyncOperationFailureHandler backOffHandler,
+                                                                Optional<TokenBucket> rateLimiter,
+                                                                String operationName,
+                                                                Executor executor,
+                                                                Supplier<? extends CompletableFuture<T>> action,
+                                                                LongConsumer backoffEventConsumer) {
+        return afterBackOff(rateLimiter.map(TokenBucket::reserve).orElse(0L), executor)
+                .thenCompose(ignored -> action.get())
+                .thenApply(result -> {
+                    backOffHandler.reset();
+                    return result;
+                })
+                .exceptionallyCompose(exception -> backOffHandler.handle(operationName, exception)
+                        .map(backOffMs -> {
+                            backoffEventConsumer.accept(backOffMs);
+                            logger.debug("Retrying '{}' in {}ms", operationName, backOffMs);
+                            return afterBackOff(backOffMs, executor).thenCompose(ignored ->
+                                    withBackOffAndRetry(backOffHandler, rateLimiter, operationName, executor, action, backoffEventConsumer));
+                        })
+                        .orElseThrow(() -> new RuntimeException(operationName + " failed", exception)));
+    }
+
+    /**
+     * Whether Google Photos API requests are rate limited proactively; disabled in tests that burst requests against an in-memory client.
+     */
+    @BindingAnnotation
+    @Target({FIELD, PARAMETER, METHOD})
+    @Retention(RUNTIME)
+    @interface ApiRateLimiting {
+    }
+}
@@ -17,6 +17,7 @@ import java.lang.annotation.Target;
 import java.time.Duration;
 import java.util.Optional;
 
+import static com.google.common.base.Preconditions.checkNotNull;
 import static com.google.common.base.Throwables.getCausalChain;
 import static java.lang.Integer.MAX_VALUE;
 import static java.lang.annotation.ElementType.*;
@@ -30,9 +31,12 @@ final class BackingOffRemoteApiExceptionHandlerImpl implements AsyncOperationFai
     // Unfortunately, the "retryable" flag in most, if not all, all these exceptions is not reliable; some of these
     // are marked as not retryable while in reality they are
     private final BiMap<Class<? extends Throwable>, BackOff> backoffByRetryableExceptionType;
+    private final UploadConcurrencyLimiter uploadConcurrencyLimiter;
 
     @Inject
-    BackingOffRemoteApiExceptionHandlerImpl(@GlobalInitialDelayOverride Optional<Duration> globalInitialDelayOverride) {
+    BackingOffRemoteApiExceptionHandlerImpl(@GlobalInitialDelayOverride Optional<Duration> globalInitialDelayOverride,
+                                            UploadConcurrencyLimiter uploadConcurrencyLimiter) {
+        this.uploadConcurrencyLimiter = checkNotNull(uploadConcurrencyLimiter);
         backoffByRetryableExceptionType = ImmutableBiMap.of(
                 // defaults as per https://developers.google.com/photos/library/guides/best-practices#retrying-failed-requests
                 ResourceExhaustedException.class, createBackOff(globalInitialDelayOverride.orElse(Duration.ofSeconds(30)), MAX_VALUE),
@@ -53,6 +57,9 @@ final class BackingOffRemoteApiExceptionHandlerImpl implements AsyncOperationFai
                 .build());
     }
 
+    /**
+     * Does not wait: the caller is to retry after the returned delay, see {@link BackingOffAsyncOperationRetry}.
+     */
     @Override
     public Optional<Long> handle(String operationName, Throwable exception) {
         for (var e : getCausalChain(exception)) {
@@ -62,8 +69,10 @@ final class BackingOffRemoteApiExceptionHandlerImpl implements AsyncOperationFai
                 if (backOffMs == STOP) {
                     return Optional.empty();
                 }
-                logger.debug("Retryable exception performing operation '{}', backing off by waiting for {}ms", operationName, backOffMs, e);
-                asUnchecked(() -> Thread.sleep(backOffMs));
+                if (e instanceof ResourceExhaustedException || e instanceof UnavailableException) {
+                    uploadConcurrencyLimiter.onThrottled();
+                }
+                logger.debug("Retryable exception performing operation '{}', backing off by {}ms", operationName, backOffMs, e);
                 return Optional.of(backOffMs);
             }
         }
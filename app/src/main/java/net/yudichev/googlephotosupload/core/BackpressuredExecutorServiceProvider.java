@@ -10,44 +10,60 @@ import java.util.concurrent.ExecutorService;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.ThreadPoolExecutor;
 
+import static com.google.common.base.Preconditions.checkNotNull;
 import static com.google.common.base.Preconditions.checkState;
 import static com.google.common.util.concurrent.MoreExecutors.shutdownAndAwaitTermination;
 import static java.util.concurrent.TimeUnit.MILLISECONDS;
 import static java.util.concurrent.TimeUnit.SECONDS;
 
-final class BackpressuredExecutorServiceProvider extends BaseLifecycleComponent implements Provider<ExecutorService> {
+/**
+ * Fixed size thread pool with a small bounded queue; when the queue is full, the submitting thread runs the task itself, which keeps the amount
+ * of work in flight (and hence memory) bounded.
+ */
+abstract class BackpressuredExecutorServiceProvider extends BaseLifecycleComponent implements Provider<ExecutorService> {
     private static final Logger logger = LoggerFactory.getLogger(BackpressuredExecutorServiceProvider.class);
+    private static final int QUEUE_SIZE_PER_THREAD = 2;
+
+    private final String threadNameFormat;
     private ThreadPoolExecutor executor;
 
+    BackpressuredExecutorServiceProvider(String threadNameFormat) {
+        this.threadNameFormat = checkNotNull(threadNameFormat);
+    }
+
     @Override
-    public ExecutorService get() {
+    public final ExecutorService get() {
         return whenStartedAndNotLifecycling(() -> executor);
     }
 
+    protected abstract int threadCount();
+
     private static void rejectedExecution(Runnable task, ThreadPoolExecutor executor) {
         checkState(!executor.isShutdown(), "Executor shut down: %s", executor);
         task.run();
     }
 
     @Override
-    protected void doStop() {
+    protected final void doStop() {
         executor.shutdownNow();
         if (!shutdownAndAwaitTermination(executor, 5, SECONDS)) {
-            logger.warn("Failed to shutdown upload thread pool in 5 seconds!");
+            logger.warn("Failed to shutdown thread pool {} in 5 seconds!", threadNameFormat);
         }
         //noinspection AssignmentToNull
         executor = null;
     }
 
     @Override
-    protected void doStart() {
+    protected final void doStart() {
+        var threadCount = threadCount();
+        logger.info("Starting thread pool {} with {} thread(s)", threadNameFormat, threadCount);
         executor = new ThreadPoolExecutor(
-                1,
-                1,
+                threadCount,
+                threadCount,
                 0L, MILLISECONDS,
-                new LinkedBlockingQueue<>(2),
+                new LinkedBlockingQueue<>(threadCount * QUEUE_SIZE_PER_THREAD),
                 new ThreadFactoryBuilder()
-                        .setNameFormat("upload-pool-%s")
+                        .setNameFormat(threadNameFormat)
                         .setDaemon(true)
                         .build(),
                 BackpressuredExecutorServiceProvider::rejectedExecution);
@@ -0,0 +1,21 @@
+package net.yudichev.googlephotosupload.core;
+
+import net.yudichev.jiotty.common.lang.PackagePrivateImmutablesStyle;
+import org.immutables.value.Value.Immutable;
+
+/**
+ * Locally cached properties of a Google Photos album, enough to decide which album a directory is uploaded to without listing all albums.
+ */
+@Immutable
+@PackagePrivateImmutablesStyle
+interface BaseCachedCloudAlbum {
+    String id();
+
+    String title();
+
+    boolean writeable();
+
+    long mediaItemCount();
+
+    String albumUrl();
+}
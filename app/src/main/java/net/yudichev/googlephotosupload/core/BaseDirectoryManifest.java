@@ -0,0 +1,26 @@
+package net.yudichev.googlephotosupload.core;
+
+import net.yudichev.jiotty.common.lang.PackagePrivateImmutablesStyle;
+import org.immutables.value.Value.Immutable;
+
+import java.nio.file.Path;
+import java.util.List;
+
+/**
+ * Snapshot of a directory taken when all its files were uploaded. A directory's modification time changes whenever an entry is added, removed
+ * or renamed in it, so while it stays the same, the directory need not be listed again - only its subdirectories need to be visited.
+ */
+@Immutable
+@PackagePrivateImmutablesStyle
+interface BaseDirectoryManifest {
+    Path path();
+
+    long lastModifiedMillis();
+
+    List<String> subdirectoryNames();
+
+    /**
+     * @see Preferences#scanFilterSignature()
+     */
+    String filterSignature();
+}
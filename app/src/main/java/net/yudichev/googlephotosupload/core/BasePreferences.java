@@ -6,13 +6,14 @@ import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
 import com.fasterxml.jackson.databind.annotation.JsonSerialize;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.ImmutableSortedSet;
+import com.google.common.hash.Hashing;
 import net.yudichev.jiotty.common.lang.PublicImmutablesStyle;
 import org.immutables.value.Value;
 import org.immutables.value.Value.Immutable;
 
 import java.nio.file.FileSystems;
 import java.nio.file.Path;
-import java.nio.file.PathMatcher;
 import java.util.Collection;
 import java.util.Map;
 import java.util.Optional;
@@ -20,6 +21,7 @@ import java.util.Set;
 
 import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.collect.ImmutableSet.toImmutableSet;
+import static java.nio.charset.StandardCharsets.UTF_8;
 
 @SuppressWarnings("ClassReferencesSubclass")
 @Immutable
@@ -88,11 +90,75 @@ abstract class BasePreferences {
 
     public abstract Optional<FailOnDriveSpaceOption> failOnDriveSpace();
 
+    /**
+     * Number of files whose media data is uploaded in parallel.
+     */
+    public abstract Optional<Integer> uploadConcurrency();
+
+    /**
+     * If set, the number of parallel uploads starts low and is adjusted automatically up to {@link #uploadConcurrency()} based on throughput
+     * and Google's throttling signals.
+     */
+    @Value.Default
+    public boolean adaptiveUploadConcurrency() {
+        return true;
+    }
+
+    /**
+     * If set, upload state is not loaded into memory at startup, but fetched from the local database one directory at a time as directories are
+     * uploaded; suitable for very large libraries.
+     */
+    @Value.Default
+    public boolean lazyUploadState() {
+        return false;
+    }
+
+    /**
+     * If set, a file whose content (by size and a hash of its head and tail) was already uploaded under a different path, e.g. after a folder
+     * was renamed or moved, is not uploaded again; the existing media item is reused.
+     */
+    @Value.Default
+    public boolean deduplicateByContent() {
+        return false;
+    }
+
+    /**
+     * If set, directories whose contents have not changed since all their files were uploaded are not listed again on subsequent runs. Off by
+     * default, as a change that does not touch the modification time of a directory, e.g. a file replaced in place, is then missed.
+     */
+    @Value.Default
+    public boolean incrementalScan() {
+        return false;
+    }
+
+    /**
+     * Number of parallel Google Photos API calls other than media data uploads (creating media items, albums etc).
+     */
+    public abstract Optional<Integer> apiCallConcurrency();
+
+    /**
+     * Number of albums created or merged with their duplicates in parallel.
+     */
+    public abstract Optional<Integer> albumReconciliationConcurrency();
+
+    /**
+     * How long the locally cached list of cloud albums is used before all albums are listed again; 0 disables the cache.
+     */
+    public abstract Optional<Integer> cloudAlbumCacheTtlHours();
+
     @Value.Check
     void validateRelevantDirDepthLimit() {
         relevantDirDepthLimit().ifPresent(value -> checkArgument(value > 0, "validateRelevantDirDepthLimit cannot be <=0: %s", value));
     }
 
+    @Value.Check
+    void validateConcurrency() {
+        uploadConcurrency().ifPresent(value -> checkArgument(value > 0, "uploadConcurrency cannot be <=0: %s", value));
+        apiCallConcurrency().ifPresent(value -> checkArgument(value > 0, "apiCallConcurrency cannot be <=0: %s", value));
+        albumReconciliationConcurrency().ifPresent(value -> checkArgument(value > 0, "albumReconciliationConcurrency cannot be <=0: %s", value));
+        cloudAlbumCacheTtlHours().ifPresent(value -> checkArgument(value >= 0, "cloudAlbumCacheTtlHours cannot be <0: %s", value));
+    }
+
     public static boolean validatePathPattern(String pattern) {
         var fileSystem = FileSystems.getDefault();
         try {
@@ -104,12 +170,19 @@ abstract class BasePreferences {
     }
 
     public final boolean shouldIncludePath(Path path) {
-        return matchesInclusionPatternIfAny(path) && compiledScanExclusionMatchers().stream().noneMatch(matcher -> matcher.matches(path));
+        return matchesInclusionPatternIfAny(path) && !compiledScanExclusionFilter().matchesAny(path);
+    }
+
+    /**
+     * @return whether no file under the directory can be included, so the directory need not be scanned
+     */
+    public final boolean shouldSkipDirectory(Path dir) {
+        return compiledScanExclusionFilter().matchesAllUnder(dir);
     }
 
     private boolean matchesInclusionPatternIfAny(Path path) {
-        var matchers = compiledScanInclusionMatchers();
-        return matchers.isEmpty() || matchers.stream().anyMatch(matcher -> matcher.matches(path));
+        var filter = compiledScanInclusionFilter();
+        return filter.isEmpty() || filter.matchesAny(path);
     }
 
     @Value.Check
@@ -154,21 +227,29 @@ abstract class BasePreferences {
 
     @Value.Derived
     @JsonIgnore
-    protected Set<PathMatcher> compiledScanExclusionMatchers() {
-        return compile(scanExclusionGlobs());
+    CompiledPathFilter compiledScanExclusionFilter() {
+        return CompiledPathFilter.compile(scanExclusionGlobs());
     }
 
     @Value.Derived
     @JsonIgnore
-    protected Set<PathMatcher> compiledScanInclusionMatchers() {
-        return compile(scanInclusionGlobs());
+    CompiledPathFilter compiledScanInclusionFilter() {
+        return CompiledPathFilter.compile(scanInclusionGlobs());
     }
 
-    private static Set<PathMatcher> compile(Set<String> strings) {
-        var fileSystem = FileSystems.getDefault();
-        return strings.stream()
-                .map(fileSystem::getPathMatcher)
-                .collect(toImmutableSet());
+    /**
+     * Identifies the set of files the scan includes and the albums they go to; directory manifests taken with a different signature are not
+     * reused.
+     */
+    @Value.Derived
+    @JsonIgnore
+    public String scanFilterSignature() {
+        return Hashing.sha256()
+                .hashString(String.join("\n", ImmutableSortedSet.copyOf(scanExclusionGlobs())) + "\n\n" +
+                        String.join("\n", ImmutableSortedSet.copyOf(scanInclusionGlobs())) + "\n\n" +
+                        // both decide which album a directory's files go to
+                        relevantDirDepthLimit().map(String::valueOf).orElse("") + "\n" + albumDelimiter(), UTF_8)
+                .toString();
     }
 
     @Immutable
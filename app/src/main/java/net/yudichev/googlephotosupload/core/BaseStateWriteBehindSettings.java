@@ -0,0 +1,33 @@
+package net.yudichev.googlephotosupload.core;
+
+import net.yudichev.jiotty.common.lang.PublicImmutablesStyle;
+import org.immutables.value.Value;
+import org.immutables.value.Value.Immutable;
+
+import java.time.Duration;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Bounds on how much upload state may be held in memory before it is committed to the local database: if the app dies, at most
+ * {@link #maxBatchSize()} items or {@link #maxDelay()} worth of state changes are lost (and the affected files re-uploaded on the next run).
+ */
+@Immutable
+@PublicImmutablesStyle
+abstract class BaseStateWriteBehindSettings {
+    @Value.Default
+    public int maxBatchSize() {
+        return 500;
+    }
+
+    @Value.Default
+    public Duration maxDelay() {
+        return Duration.ofSeconds(1);
+    }
+
+    @Value.Check
+    void validate() {
+        checkArgument(maxBatchSize() > 0, "maxBatchSize must be positive, got %s", maxBatchSize());
+        checkArgument(!maxDelay().isNegative() && !maxDelay().isZero(), "maxDelay must be positive, got %s", maxDelay());
+    }
+}
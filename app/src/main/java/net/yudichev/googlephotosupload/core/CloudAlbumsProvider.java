@@ -5,7 +5,22 @@ import net.yudichev.jiotty.connector.google.photos.GooglePhotosAlbum;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.CompletableFuture;
+import java.util.function.LongConsumer;
 
 interface CloudAlbumsProvider {
+    /**
+     * The albums come from the local cache until it expires, in which case they must be {@link #resolveAlbums(List, LongConsumer) resolved}
+     * before their content is read or modified.
+     */
     CompletableFuture<Map<String, List<GooglePhotosAlbum>>> listCloudAlbums();
+
+    /**
+     * Loads each cached album on its own; albums that no longer exist in the cloud are forgotten.
+     *
+     * @return the current state of the specified albums as returned by {@link #listCloudAlbums()}, without those that no longer exist in
+     * the cloud
+     */
+    CompletableFuture<List<GooglePhotosAlbum>> resolveAlbums(List<GooglePhotosAlbum> albums, LongConsumer backoffEventConsumer);
+
+    void onAlbumCreated(GooglePhotosAlbum album);
 }
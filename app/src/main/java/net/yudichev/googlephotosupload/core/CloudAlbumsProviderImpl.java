@@ -1,7 +1,11 @@
 package net.yudichev.googlephotosupload.core;
 
-import net.yudichev.jiotty.common.async.AsyncOperationRetry;
+import com.google.api.gax.rpc.InvalidArgumentException;
+import com.google.api.gax.rpc.NotFoundException;
+import com.google.api.gax.rpc.PermissionDeniedException;
 import net.yudichev.jiotty.common.inject.BaseLifecycleComponent;
+import net.yudichev.jiotty.common.time.CurrentDateTimeProvider;
+import net.yudichev.jiotty.connector.google.photos.GoogleMediaItem;
 import net.yudichev.jiotty.connector.google.photos.GooglePhotosAlbum;
 import net.yudichev.jiotty.connector.google.photos.GooglePhotosClient;
 import org.slf4j.Logger;
@@ -9,60 +13,215 @@ import org.slf4j.LoggerFactory;
 
 import javax.inject.Inject;
 import javax.inject.Provider;
+import java.time.Duration;
 import java.util.*;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
+import java.util.function.IntConsumer;
+import java.util.function.LongConsumer;
 
 import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Throwables.getCausalChain;
+import static com.google.common.collect.ImmutableList.toImmutableList;
+import static java.util.concurrent.CompletableFuture.completedFuture;
 import static java.util.stream.Collectors.groupingBy;
 import static java.util.stream.Collectors.toList;
+import static net.yudichev.googlephotosupload.core.ApiOperationClass.READ;
 import static net.yudichev.googlephotosupload.core.Bindings.Backpressured;
+import static net.yudichev.jiotty.common.lang.CompletableFutures.toFutureOfList;
 
 final class CloudAlbumsProviderImpl extends BaseLifecycleComponent implements CloudAlbumsProvider {
     private static final Logger logger = LoggerFactory.getLogger(CloudAlbumsProviderImpl.class);
-    private final AsyncOperationRetry asyncOperationRetry;
+    private static final int DEFAULT_CACHE_TTL_HOURS = 24;
+
+    private final ApiOperationRetry apiOperationRetry;
     private final GooglePhotosClient googlePhotosClient;
     private final Provider<ExecutorService> executorServiceProvider;
     private final ProgressStatusFactory progressStatusFactory;
     private final ResourceBundle resourceBundle;
+    private final UploadStateManager uploadStateManager;
+    private final PreferencesManager preferencesManager;
+    private final CurrentDateTimeProvider currentDateTimeProvider;
 
     private volatile ExecutorService executorService;
 
     @Inject
-    CloudAlbumsProviderImpl(AsyncOperationRetry asyncOperationRetry,
+    CloudAlbumsProviderImpl(ApiOperationRetry apiOperationRetry,
                             GooglePhotosClient googlePhotosClient,
                             @SuppressWarnings("BoundedWildcard") @Backpressured Provider<ExecutorService> executorServiceProvider,
                             ProgressStatusFactory progressStatusFactory,
-                            ResourceBundle resourceBundle) {
-        this.asyncOperationRetry = checkNotNull(asyncOperationRetry);
+                            ResourceBundle resourceBundle,
+                            UploadStateManager uploadStateManager,
+                            PreferencesManager preferencesManager,
+                            CurrentDateTimeProvider currentDateTimeProvider) {
+        this.apiOperationRetry = checkNotNull(apiOperationRetry);
         this.googlePhotosClient = checkNotNull(googlePhotosClient);
         this.executorServiceProvider = executorServiceProvider;
         this.progressStatusFactory = checkNotNull(progressStatusFactory);
         this.resourceBundle = checkNotNull(resourceBundle);
+        this.uploadStateManager = checkNotNull(uploadStateManager);
+        this.preferencesManager = checkNotNull(preferencesManager);
+        this.currentDateTimeProvider = checkNotNull(currentDateTimeProvider);
     }
 
     @Override
     public CompletableFuture<Map<String, List<GooglePhotosAlbum>>> listCloudAlbums() {
         checkStarted();
+        var cacheTtl = Duration.ofHours(preferencesManager.get().cloudAlbumCacheTtlHours().orElse(DEFAULT_CACHE_TTL_HOURS));
+        var now = currentDateTimeProvider.currentInstant();
+        var cacheValid = uploadStateManager.cloudAlbumsListingInstant()
+                .filter(listingInstant -> now.isBefore(listingInstant.plus(cacheTtl)))
+                .isPresent();
+        if (cacheValid) {
+            var cachedAlbums = uploadStateManager.loadCloudAlbums();
+            logger.info("Using {} locally cached cloud album(s)", cachedAlbums.size());
+            return completedFuture(groupByTitle(cachedAlbums.stream()
+                    .<GooglePhotosAlbum>map(CachedGooglePhotosAlbum::new)
+                    .collect(toImmutableList())));
+        }
+
         logger.info("Loading albums in cloud (may take several minutes)...");
         var progressStatus = progressStatusFactory.create(resourceBundle.getString("cloudAlbumsProviderProgressTitle"), Optional.empty());
-        var result = asyncOperationRetry.withBackOffAndRetry(
+        var result = apiOperationRetry.withBackOffAndRetry(
+                        READ,
                         "get all albums",
+                        executorService,
                         () -> googlePhotosClient.listAlbums(progressStatus::updateSuccess, executorService),
                         progressStatus::onBackoffDelay)
-                .<Map<String, List<GooglePhotosAlbum>>>thenApply(albumsInCloud -> {
+                .thenApply(albumsInCloud -> {
                     logger.info("... loaded {} album(s) in cloud", albumsInCloud.size());
-                    return albumsInCloud.stream()
-                            .collect(groupingBy(GooglePhotosAlbum::getTitle,
-                                    () -> new HashMap<>(albumsInCloud.size()),
-                                    toList()));
+                    uploadStateManager.saveCloudAlbums(albumsInCloud.stream()
+                                    .map(CloudAlbumsProviderImpl::toCachedAlbum)
+                                    .collect(toImmutableList()),
+                            now);
+                    return groupByTitle(albumsInCloud);
                 });
         result.whenComplete((ignored, e) -> progressStatus.close(e == null));
         return result;
     }
 
+    @Override
+    public CompletableFuture<List<GooglePhotosAlbum>> resolveAlbums(List<GooglePhotosAlbum> albums, LongConsumer backoffEventConsumer) {
+        checkStarted();
+        return albums.stream()
+                .map(album -> album instanceof CachedGooglePhotosAlbum ?
+                        getAlbum(album.getId(), backoffEventConsumer) :
+                        completedFuture(Optional.of(album)))
+                .collect(toFutureOfList())
+                .thenApply(resolvedAlbums -> resolvedAlbums.stream()
+                        .flatMap(Optional::stream)
+                        .collect(toImmutableList()));
+    }
+
+    @Override
+    public void onAlbumCreated(GooglePhotosAlbum album) {
+        uploadStateManager.saveCloudAlbum(toCachedAlbum(album));
+    }
+
     @Override
     protected void doStart() {
         executorService = executorServiceProvider.get();
     }
+
+    private CompletableFuture<Optional<GooglePhotosAlbum>> getAlbum(String albumId, LongConsumer backoffEventConsumer) {
+        return apiOperationRetry.withBackOffAndRetry(
+                        READ,
+                        "get album " + albumId,
+                        executorService,
+                        () -> googlePhotosClient.getAlbum(albumId, executorService),
+                        backoffEventConsumer)
+                .handle((album, e) -> {
+                    if (e == null) {
+                        uploadStateManager.saveCloudAlbum(toCachedAlbum(album));
+                        return Optional.of(album);
+                    }
+                    if (getCausalChain(e).stream().anyMatch(throwable -> throwable instanceof NotFoundException ||
+                            throwable instanceof InvalidArgumentException ||
+                            throwable instanceof PermissionDeniedException)) {
+                        logger.info("Cached album {} no longer exists in the cloud, forgetting it", albumId, e);
+                        uploadStateManager.forgetCloudAlbum(albumId);
+                        return Optional.empty();
+                    }
+                    throw new RuntimeException(e);
+                });
+    }
+
+    private static Map<String, List<GooglePhotosAlbum>> groupByTitle(List<GooglePhotosAlbum> albums) {
+        return albums.stream()
+                .collect(groupingBy(GooglePhotosAlbum::getTitle,
+                        () -> new HashMap<>(albums.size()),
+                        toList()));
+    }
+
+    private static CachedCloudAlbum toCachedAlbum(GooglePhotosAlbum album) {
+        return CachedCloudAlbum.builder()
+                .setId(album.getId())
+                .setTitle(album.getTitle())
+                .setWriteable(album.isWriteable())
+                .setMediaItemCount(album.getMediaItemCount())
+                .setAlbumUrl(album.getAlbumUrl())
+                .build();
+    }
+
+    /**
+     * Only carries the cached properties; must be {@link #resolveAlbums(List, LongConsumer) resolved} before its content can be read or
+     * modified.
+     */
+    private static final class CachedGooglePhotosAlbum implements GooglePhotosAlbum {
+        private final CachedCloudAlbum cachedAlbum;
+
+        CachedGooglePhotosAlbum(CachedCloudAlbum cachedAlbum) {
+            this.cachedAlbum = checkNotNull(cachedAlbum);
+        }
+
+        @Override
+        public String getTitle() {
+            return cachedAlbum.title();
+        }
+
+        @Override
+        public String getId() {
+            return cachedAlbum.id();
+        }
+
+        @Override
+        public long getMediaItemCount() {
+            return cachedAlbum.mediaItemCount();
+        }
+
+        @Override
+        public String getAlbumUrl() {
+            return cachedAlbum.albumUrl();
+        }
+
+        @Override
+        public boolean isWriteable() {
+            return cachedAlbum.writeable();
+        }
+
+        @Override
+        public CompletableFuture<Void> addMediaItemsByIds(List<String> mediaItemsIds, Executor executor) {
+            throw notResolved();
+        }
+
+        @Override
+        public CompletableFuture<Void> removeMediaItemsByIds(List<String> mediaItemsIds, Executor executor) {
+            throw notResolved();
+        }
+
+        @Override
+        public CompletableFuture<List<GoogleMediaItem>> getMediaItems(IntConsumer loadedItemCountProgressCallback, Executor executor) {
+            throw notResolved();
+        }
+
+        private IllegalStateException notResolved() {
+            return new IllegalStateException("cached album must be resolved first: " + cachedAlbum);
+        }
+
+        @Override
+        public String toString() {
+            return "CachedGooglePhotosAlbum{" + cachedAlbum + '}';
+        }
+    }
 }
@@ -0,0 +1,220 @@
+package net.yudichev.googlephotosupload.core;
+
+import com.google.common.collect.ImmutableList;
+
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Optional;
+import java.util.Set;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Matches a path against a set of {@link FileSystem#getPathMatcher(String) path matcher} patterns. Globs of the common shapes
+ * {@code **}{@code /name}, {@code **}{@code /*suffix}, {@code **}{@code /prefix*} and their directory counterparts ending with
+ * {@code /**} are answered with hash lookups and string comparisons on path elements; all other patterns fall back to {@link PathMatcher}.
+ */
+final class CompiledPathFilter {
+    private static final String GLOB_SYNTAX = "glob:";
+    private static final String ANY_DIRS_PREFIX = "**/";
+    private static final String ANY_DIRS_SUFFIX = "/**";
+    private static final String GLOB_SPECIAL_CHARS = "*?[]{}\\";
+
+    private final boolean caseInsensitive;
+    private final NameMatcher fileNameMatcher;
+    private final NameMatcher dirNameMatcher;
+    private final List<PathMatcher> fallbackMatchers;
+
+    private CompiledPathFilter(boolean caseInsensitive, NameMatcher fileNameMatcher, NameMatcher dirNameMatcher, List<PathMatcher> fallbackMatchers) {
+        this.caseInsensitive = caseInsensitive;
+        this.fileNameMatcher = checkNotNull(fileNameMatcher);
+        this.dirNameMatcher = checkNotNull(dirNameMatcher);
+        this.fallbackMatchers = ImmutableList.copyOf(fallbackMatchers);
+    }
+
+    static CompiledPathFilter compile(Set<String> patterns) {
+        return compile(FileSystems.getDefault(), patterns);
+    }
+
+    static CompiledPathFilter compile(FileSystem fileSystem, Set<String> patterns) {
+        // e.g. globs are case insensitive on Windows
+        var caseInsensitive = fileSystem.getPathMatcher("glob:A").matches(fileSystem.getPath("a"));
+        var fileNameMatcher = new NameMatcher();
+        var dirNameMatcher = new NameMatcher();
+        List<PathMatcher> fallbackMatchers = new ArrayList<>();
+        for (var pattern : patterns) {
+            if (!compileGlob(pattern, caseInsensitive, fileNameMatcher, dirNameMatcher)) {
+                fallbackMatchers.add(fileSystem.getPathMatcher(pattern));
+            }
+        }
+        return new CompiledPathFilter(caseInsensitive, fileNameMatcher, dirNameMatcher, fallbackMatchers);
+    }
+
+    boolean isEmpty() {
+        return fileNameMatcher.isEmpty() && dirNameMatcher.isEmpty() && fallbackMatchers.isEmpty();
+    }
+
+    boolean matchesAny(Path path) {
+        var fileName = fileNameAfterSeparator(path);
+        if (fileName != null && fileNameMatcher.matches(normalize(fileName))) {
+            return true;
+        }
+        if (!dirNameMatcher.isEmpty()) {
+            // same for "**/name/**", which also requires a separator after the name, so the file name itself is never a directory name
+            var firstPrecededBySeparator = path.getRoot() == null ? 1 : 0;
+            for (var i = firstPrecededBySeparator; i < path.getNameCount() - 1; i++) {
+                if (dirNameMatcher.matches(normalize(path.getName(i).toString()))) {
+                    return true;
+                }
+            }
+        }
+        for (var matcher : fallbackMatchers) {
+            if (matcher.matches(path)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return whether all paths under the directory are known to match, because a directory name pattern matches the directory itself
+     */
+    boolean matchesAllUnder(Path dir) {
+        var dirName = fileNameAfterSeparator(dir);
+        return dirName != null && dirNameMatcher.matches(normalize(dirName));
+    }
+
+    /**
+     * @return the last name in the path if preceded by a separator, as {@code **}{@code /} requires, an empty name for a root, or null
+     */
+    private static String fileNameAfterSeparator(Path path) {
+        var fileName = path.getFileName();
+        if (fileName == null) {
+            return path.getRoot() == null ? null : "";
+        }
+        return path.getParent() == null ? null : fileName.toString();
+    }
+
+    private String normalize(String name) {
+        return caseInsensitive ? name.toLowerCase(Locale.ROOT) : name;
+    }
+
+    private static boolean compileGlob(String pattern, boolean caseInsensitive, NameMatcher fileNameMatcher, NameMatcher dirNameMatcher) {
+        if (!pattern.startsWith(GLOB_SYNTAX)) {
+            return false;
+        }
+        var glob = pattern.substring(GLOB_SYNTAX.length());
+        if (!glob.startsWith(ANY_DIRS_PREFIX)) {
+            return false;
+        }
+        var namePattern = glob.substring(ANY_DIRS_PREFIX.length());
+        var nameMatcher = fileNameMatcher;
+        if (namePattern.endsWith(ANY_DIRS_SUFFIX)) {
+            namePattern = namePattern.substring(0, namePattern.length() - ANY_DIRS_SUFFIX.length());
+            nameMatcher = dirNameMatcher;
+        }
+        if (namePattern.contains("/")) {
+            return false;
+        }
+        var alternatives = expandBraces(caseInsensitive ? namePattern.toLowerCase(Locale.ROOT) : namePattern);
+        if (alternatives.isEmpty()) {
+            return false;
+        }
+        List<Runnable> additions = new ArrayList<>(alternatives.get().size());
+        for (var alternative : alternatives.get()) {
+            var targetMatcher = nameMatcher;
+            if (isLiteral(alternative)) {
+                additions.add(() -> targetMatcher.exactNames.add(alternative));
+            } else if (alternative.startsWith("*") && isLiteral(alternative.substring(1))) {
+                additions.add(() -> targetMatcher.addSuffix(alternative.substring(1)));
+            } else if (alternative.endsWith("*") && isLiteral(alternative.substring(0, alternative.length() - 1))) {
+                additions.add(() -> targetMatcher.prefixes.add(alternative.substring(0, alternative.length() - 1)));
+            } else {
+                return false;
+            }
+        }
+        additions.forEach(Runnable::run);
+        return true;
+    }
+
+    /**
+     * @return alternatives of a pattern with at most one non-nested brace group of literals, or empty if the pattern is more complex
+     */
+    private static Optional<List<String>> expandBraces(String pattern) {
+        var openIndex = pattern.indexOf('{');
+        if (openIndex < 0) {
+            return pattern.indexOf('}') < 0 ? Optional.of(ImmutableList.of(pattern)) : Optional.empty();
+        }
+        var closeIndex = pattern.indexOf('}', openIndex);
+        if (closeIndex < 0) {
+            return Optional.empty();
+        }
+        var head = pattern.substring(0, openIndex);
+        var tail = pattern.substring(closeIndex + 1);
+        if (head.indexOf('{') >= 0 || tail.indexOf('{') >= 0 || tail.indexOf('}') >= 0) {
+            return Optional.empty();
+        }
+        var alternatives = ImmutableList.<String>builder();
+        for (var alternative : pattern.substring(openIndex + 1, closeIndex).split(",", -1)) {
+            if (!isLiteral(alternative)) {
+                return Optional.empty();
+            }
+            alternatives.add(head + alternative + tail);
+        }
+        return Optional.of(alternatives.build());
+    }
+
+    private static boolean isLiteral(String string) {
+        return string.chars().noneMatch(c -> GLOB_SPECIAL_CHARS.indexOf(c) >= 0);
+    }
+
+    private static final class NameMatcher {
+        private final Set<String> exactNames = new HashSet<>();
+        private final Set<String> extensions = new HashSet<>();
+        private final List<String> suffixes = new ArrayList<>();
+        private final List<String> prefixes = new ArrayList<>();
+
+        void addSuffix(String suffix) {
+            // ".ext" matches exactly the names whose extension is "ext"
+            if (suffix.lastIndexOf('.') == 0) {
+                extensions.add(suffix.substring(1));
+            } else {
+                suffixes.add(suffix);
+            }
+        }
+
+        boolean isEmpty() {
+            return exactNames.isEmpty() && extensions.isEmpty() && suffixes.isEmpty() && prefixes.isEmpty();
+        }
+
+        boolean matches(String name) {
+            if (exactNames.contains(name)) {
+                return true;
+            }
+            if (!extensions.isEmpty()) {
+                var dotIndex = name.lastIndexOf('.');
+                if (dotIndex >= 0 && extensions.contains(name.substring(dotIndex + 1))) {
+                    return true;
+                }
+            }
+            for (var suffix : suffixes) {
+                if (name.endsWith(suffix)) {
+                    return true;
+                }
+            }
+            for (var prefix : prefixes) {
+                if (name.startsWith(prefix)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+}
@@ -0,0 +1,52 @@
+package net.yudichev.googlephotosupload.core;
+
+import com.google.common.io.BaseEncoding;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import static java.nio.file.StandardOpenOption.READ;
+
+/**
+ * Cheap identity of a file's content: its size plus SHA-256 of its first and last {@value #SAMPLE_SIZE} bytes. Media files differing only in
+ * the middle with identical size are practically non-existent, so this is a good enough key for detecting moved or renamed files.
+ */
+final class ContentFingerprint {
+    private static final int SAMPLE_SIZE = 64 * 1024;
+
+    private ContentFingerprint() {
+    }
+
+    public static String of(Path file) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        try (var channel = FileChannel.open(file, READ)) {
+            var size = channel.size();
+            var buffer = ByteBuffer.allocate(SAMPLE_SIZE);
+            readFully(channel, buffer, 0);
+            digest.update(buffer.flip());
+            if (size > SAMPLE_SIZE) {
+                buffer.clear();
+                readFully(channel, buffer, Math.max(SAMPLE_SIZE, size - SAMPLE_SIZE));
+                digest.update(buffer.flip());
+            }
+            return size + "-" + BaseEncoding.base16().lowerCase().encode(digest.digest());
+        }
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        var currentPosition = position;
+        int bytesRead;
+        while (buffer.hasRemaining() && (bytesRead = channel.read(buffer, currentPosition)) > 0) {
+            currentPosition += bytesRead;
+        }
+    }
+}
@@ -8,8 +8,10 @@ import java.nio.file.Path;
 import java.util.concurrent.ExecutorService;
 
 import static com.google.common.base.Preconditions.checkNotNull;
+import static net.yudichev.googlephotosupload.core.Bindings.AlbumReconciliation;
 import static net.yudichev.googlephotosupload.core.Bindings.Backpressured;
 import static net.yudichev.googlephotosupload.core.Bindings.GoogleAuthRootDir;
+import static net.yudichev.googlephotosupload.core.Bindings.MediaUpload;
 
 public final class CoreDependenciesModule extends BaseLifecycleComponentModule {
     private final Path authDataStoreRootDir;
@@ -24,15 +26,21 @@ public final class CoreDependenciesModule extends BaseLifecycleComponentModule {
         installLifecycleComponentModule(executorModule);
 
         // Google Client components logically depend on this component, because executors are passed directly to the API calls
-        // Hence, this service must start before Google Client, and anything else, really, as passing executors to services is a common practice.
+        // Hence, these services must start before Google Client, and anything else, really, as passing executors to services is a common practice.
         var executorServiceKey = Key.get(ExecutorService.class, Backpressured.class);
-        bind(executorServiceKey).toProvider(registerLifecycleComponent(BackpressuredExecutorServiceProvider.class));
+        bind(executorServiceKey).toProvider(registerLifecycleComponent(ApiCallExecutorServiceProvider.class));
+        var mediaUploadExecutorServiceKey = Key.get(ExecutorService.class, MediaUpload.class);
+        bind(mediaUploadExecutorServiceKey).toProvider(registerLifecycleComponent(MediaUploadExecutorServiceProvider.class));
+        var albumReconciliationExecutorServiceKey = Key.get(ExecutorService.class, AlbumReconciliation.class);
+        bind(albumReconciliationExecutorServiceKey).toProvider(registerLifecycleComponent(AlbumReconciliationExecutorServiceProvider.class));
 
         var googleAuthRootDirKey = Key.get(Path.class, GoogleAuthRootDir.class);
         bind(googleAuthRootDirKey).toInstance(authDataStoreRootDir);
 
         expose(executorModule.getExposedKey());
         expose(executorServiceKey);
+        expose(mediaUploadExecutorServiceKey);
+        expose(albumReconciliationExecutorServiceKey);
         expose(googleAuthRootDirKey);
     }
 }
@@ -1,9 +1,24 @@
 package net.yudichev.googlephotosupload.core;
 
 import java.nio.file.Path;
+import java.util.Collection;
 import java.util.List;
 import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
 
 interface DirectoryStructureSupplier {
-    CompletableFuture<List<AlbumDirectory>> listAlbumDirectories(List<Path> rootDirs);
+    /**
+     * Scans the specified roots, passing each album directory to the consumer as soon as all its files are known, while the scan continues.
+     * The consumer may be called concurrently from multiple threads and should not block. Cancelling the returned future stops the scan,
+     * although the consumer may still be called for directories that were being passed to it at that moment.
+     *
+     * @return future completed when the scan is finished and the consumer was called for all album directories
+     */
+    CompletableFuture<Void> listAlbumDirectories(List<Path> rootDirs, Consumer<AlbumDirectory> albumDirectoryConsumer);
+
+    /**
+     * Groups the specified files under the root into album directories the same way a scan would; files that are not regular files or do not
+     * pass the include/exclude patterns are dropped.
+     */
+    List<AlbumDirectory> toAlbumDirectories(Path rootDir, Collection<Path> files);
 }
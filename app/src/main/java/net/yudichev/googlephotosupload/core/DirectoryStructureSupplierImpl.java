@@ -1,119 +1,174 @@
 package net.yudichev.googlephotosupload.core;
 
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Streams;
 import net.yudichev.jiotty.common.lang.PackagePrivateImmutablesStyle;
+import net.yudichev.jiotty.common.time.CurrentDateTimeProvider;
 import org.immutables.value.Value;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.inject.Inject;
 import java.io.IOException;
-import java.nio.file.FileVisitResult;
+import java.io.UncheckedIOException;
+import java.nio.file.DirectoryIteratorException;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.SimpleFileVisitor;
 import java.nio.file.attribute.BasicFileAttributes;
+import java.time.Duration;
 import java.util.*;
 import java.util.concurrent.CompletableFuture;
-import java.util.stream.Stream;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
 
 import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
 import static com.google.common.collect.ImmutableList.toImmutableList;
-import static java.nio.file.FileVisitResult.CONTINUE;
+import static java.nio.file.LinkOption.NOFOLLOW_LINKS;
 import static net.yudichev.jiotty.common.lang.HumanReadableExceptionMessage.humanReadableMessage;
-import static net.yudichev.jiotty.common.lang.MoreThrowables.asUnchecked;
 
 final class DirectoryStructureSupplierImpl implements DirectoryStructureSupplier {
     private static final Logger logger = LoggerFactory.getLogger(DirectoryStructureSupplierImpl.class);
+    /**
+     * Scanning is I/O bound, especially on network drives, so use more threads than cores to keep the I/O queue busy.
+     */
+    private static final int SCAN_PARALLELISM = Math.max(4, Runtime.getRuntime().availableProcessors() * 2);
+    /**
+     * Directories modified this recently are not given a manifest: a change made within the file system's timestamp granularity (up to 2
+     * seconds on FAT) after the listing would not change the directory's modification time.
+     */
+    private static final Duration RACY_MODIFICATION_WINDOW = Duration.ofSeconds(2);
 
     private final ProgressStatusFactory progressStatusFactory;
     private final PreferencesManager preferencesManager;
     private final ResourceBundle resourceBundle;
+    private final UploadStateManager uploadStateManager;
+    private final CurrentDateTimeProvider currentDateTimeProvider;
 
     @Inject
     DirectoryStructureSupplierImpl(ProgressStatusFactory progressStatusFactory,
                                    PreferencesManager preferencesManager,
-                                   ResourceBundle resourceBundle) {
+                                   ResourceBundle resourceBundle,
+                                   UploadStateManager uploadStateManager,
+                                   CurrentDateTimeProvider currentDateTimeProvider) {
         this.progressStatusFactory = progressStatusFactory;
         this.preferencesManager = checkNotNull(preferencesManager);
         this.resourceBundle = checkNotNull(resourceBundle);
+        this.uploadStateManager = checkNotNull(uploadStateManager);
+        this.currentDateTimeProvider = checkNotNull(currentDateTimeProvider);
     }
 
     @Override
-    public CompletableFuture<List<AlbumDirectory>> listAlbumDirectories(List<Path> rootDirs) {
+    public CompletableFuture<Void> listAlbumDirectories(List<Path> rootDirs, Consumer<AlbumDirectory> albumDirectoryConsumer) {
         var progressStatus = progressStatusFactory.create(resourceBundle.getString("directoryStructureSupplierProgressTitle"), Optional.empty());
-        var resultFuture = CompletableFuture.<List<AlbumDirectory>>supplyAsync(() -> {
+        var aborted = new AtomicBoolean();
+        var resultFuture = CompletableFuture.runAsync(() -> {
             rootDirs.forEach(rootDir -> checkArgument(Files.isDirectory(rootDir), "Path is not a directory: %s", rootDir));
             logger.info("Scanning file system starting at roots {}...", rootDirs);
-            var result = rootDirs.stream()
-                    .flatMap(rootDir -> listAlbumDirectories(progressStatus, rootDir))
-                    .collect(toImmutableList());
-            logger.info("... done, {} directories found that will be used as albums", result.size());
-            return result;
+            var albumDirectoryCount = new AtomicInteger();
+            listAlbumDirectories(progressStatus, rootDirs, aborted, albumDirectory -> {
+                albumDirectoryCount.incrementAndGet();
+                albumDirectoryConsumer.accept(albumDirectory);
+            });
+            if (aborted.get()) {
+                logger.info("... aborted after {} directories", albumDirectoryCount.get());
+            } else {
+                logger.info("... done, {} directories found that will be used as albums", albumDirectoryCount.get());
+            }
+        });
+        resultFuture.whenComplete((ignored, e) -> {
+            if (resultFuture.isCancelled()) {
+                // cancelling the future does not interrupt the scan tasks, so they check this instead
+                aborted.set(true);
+            }
+            progressStatus.close(e == null);
         });
-        resultFuture.whenComplete((ignored, e) -> progressStatus.close(e == null));
         return resultFuture;
     }
 
-    private Stream<AlbumDirectory> listAlbumDirectories(ProgressStatus progressStatus, Path rootDir) {
+    private void listAlbumDirectories(ProgressStatus progressStatus,
+                                      List<Path> rootDirs,
+                                      AtomicBoolean aborted,
+                                      Consumer<AlbumDirectory> albumDirectoryConsumer) {
         var preferences = preferencesManager.get();
-        var rootNameCount = rootDir.getNameCount();
         preferences.relevantDirDepthLimit().ifPresent(limit -> logger.info("Only using directories up to depth level {} as albums", limit));
         var relevantDepthLimit = preferences.relevantDirDepthLimit().orElse(Integer.MAX_VALUE);
-        Map<Path, ImmutableList.Builder<Path>> fileListBuilderByParentDir = new HashMap<>();
-        asUnchecked(() -> Files.walkFileTree(rootDir, new SimpleFileVisitor<>() {
-            private int currentDepth;
-            private Path currentRelevantDir;
-
-            @Override
-            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
-                if (++currentDepth <= relevantDepthLimit) {
-                    setRelevantDir(dir);
-                }
-                return CONTINUE;
-            }
-
-            @Override
-            public FileVisitResult postVisitDirectory(Path dir, IOException exc) {
-                if (--currentDepth <= relevantDepthLimit) {
-                    setRelevantDir(dir.getParent());
-                }
-
-                if (exc != null) {
-                    progressStatus.addFailure(KeyedError.of(dir, humanReadableMessage(exc)));
-                }
-                return CONTINUE;
-            }
+        var unchangedDirectoryCount = new AtomicInteger();
+        var manifestCutoffMillis = currentDateTimeProvider.currentInstant().minus(RACY_MODIFICATION_WINDOW).toEpochMilli();
+        var pool = new ForkJoinPool(SCAN_PARALLELISM);
+        try {
+            // all roots are scanned in parallel
+            rootDirs.stream()
+                    .map(rootDir -> pool.submit(new ScanDirectoryTask(
+                            rootDir,
+                            1,
+                            rootDir,
+                            lastModifiedMillis(rootDir),
+                            new ScanContext(rootDir.getNameCount(),
+                                    relevantDepthLimit,
+                                    preferences,
+                                    progressStatus,
+                                    albumDirectoryConsumer,
+                                    uploadStateManager,
+                                    manifestCutoffMillis,
+                                    unchangedDirectoryCount,
+                                    aborted))))
+                    .collect(toImmutableList())
+                    .forEach(ForkJoinTask::join);
+        } finally {
+            pool.shutdown();
+        }
+        if (preferences.incrementalScan()) {
+            logger.info("{} unchanged directories were not listed", unchangedDirectoryCount.get());
+        }
+    }
 
-            @Override
-            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
-                if (preferences.shouldIncludePath(file)) {
-                    fileListBuilderByParentDir
-                            .computeIfAbsent(currentRelevantDir, ignored -> ImmutableList.builder())
-                            .add(file);
-                    progressStatus.updateDescription(file.toAbsolutePath().toString());
-                    logger.debug("Including file: {}", file);
-                    progressStatus.incrementSuccess();
-                } else {
+    @Override
+    public List<AlbumDirectory> toAlbumDirectories(Path rootDir, Collection<Path> files) {
+        var preferences = preferencesManager.get();
+        var relevantDepthLimit = preferences.relevantDirDepthLimit().orElse(Integer.MAX_VALUE);
+        Map<Path, List<Path>> filesByRelevantDir = new TreeMap<>();
+        files.stream()
+                .filter(file -> file.startsWith(rootDir) && !file.equals(rootDir))
+                .filter(file -> Files.isRegularFile(file, NOFOLLOW_LINKS))
+                .filter(file -> {
+                    if (preferences.shouldIncludePath(file)) {
+                        return true;
+                    }
                     logger.debug("Skipping file as it does not pass include/exclude pattern test: {}", file);
-                }
-                return CONTINUE;
-            }
-
-            private void setRelevantDir(Path dir) {
-                currentRelevantDir = dir;
-                logger.debug("Current relevant dir {}", currentRelevantDir);
-            }
-        }));
-
-        return fileListBuilderByParentDir.entrySet().stream()
+                    return false;
+                })
+                .distinct()
+                .forEach(file -> {
+                    // root is at depth 1
+                    var dirRelativeToRoot = rootDir.relativize(file.getParent());
+                    var dirDepth = dirRelativeToRoot.toString().isEmpty() ? 1 : dirRelativeToRoot.getNameCount() + 1;
+                    var relevantDir = dirDepth <= relevantDepthLimit ? file.getParent() :
+                            relevantDepthLimit == 1 ? rootDir : rootDir.resolve(dirRelativeToRoot.subpath(0, relevantDepthLimit - 1));
+                    filesByRelevantDir.computeIfAbsent(relevantDir, ignored -> new ArrayList<>()).add(file);
+                });
+        return filesByRelevantDir.entrySet().stream()
                 .map(entry -> AlbumDirectory.builder()
                         .setPath(entry.getKey())
-                        .setAlbumTitle(toAlbumTitle(entry.getKey(), preferences.albumDelimiter(), rootNameCount))
-                        .setFiles(entry.getValue().build())
-                        .build());
+                        .setAlbumTitle(toAlbumTitle(entry.getKey(), preferences.albumDelimiter(), rootDir.getNameCount()))
+                        .setFiles(entry.getValue().stream().sorted().collect(toImmutableList()))
+                        .build())
+                .collect(toImmutableList());
+    }
+
+    private static long lastModifiedMillis(Path dir) {
+        try {
+            return Files.getLastModifiedTime(dir).toMillis();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
     }
 
     private static Optional<String> toAlbumTitle(Path path, String albumNameDelimiter, int rootNameCount) {
@@ -128,6 +183,201 @@ final class DirectoryStructureSupplierImpl implements DirectoryStructureSupplier
         }
     }
 
+    private static final class ScanContext {
+        private final int rootNameCount;
+        private final int relevantDepthLimit;
+        private final Preferences preferences;
+        private final ProgressStatus progressStatus;
+        private final Consumer<AlbumDirectory> albumDirectoryConsumer;
+        private final UploadStateManager uploadStateManager;
+        private final long manifestCutoffMillis;
+        private final AtomicInteger unchangedDirectoryCount;
+        private final AtomicBoolean aborted;
+        private final Map<Path, Queue<Path>> filesByRelevantDir = new ConcurrentHashMap<>();
+        private final Map<Path, Long> sizeByFile = new ConcurrentHashMap<>();
+        private final Map<Path, Queue<DirectoryManifest>> manifestsByRelevantDir = new ConcurrentHashMap<>();
+
+        ScanContext(int rootNameCount,
+                    int relevantDepthLimit,
+                    Preferences preferences,
+                    ProgressStatus progressStatus,
+                    Consumer<AlbumDirectory> albumDirectoryConsumer,
+                    UploadStateManager uploadStateManager,
+                    long manifestCutoffMillis,
+                    AtomicInteger unchangedDirectoryCount,
+                    AtomicBoolean aborted) {
+            this.rootNameCount = rootNameCount;
+            this.relevantDepthLimit = relevantDepthLimit;
+            this.preferences = checkNotNull(preferences);
+            this.progressStatus = checkNotNull(progressStatus);
+            this.albumDirectoryConsumer = checkNotNull(albumDirectoryConsumer);
+            this.uploadStateManager = checkNotNull(uploadStateManager);
+            this.manifestCutoffMillis = manifestCutoffMillis;
+            this.unchangedDirectoryCount = checkNotNull(unchangedDirectoryCount);
+            this.aborted = checkNotNull(aborted);
+        }
+
+        Optional<DirectoryManifest> findUnchangedManifest(Path dir, long lastModifiedMillis) {
+            if (!preferences.incrementalScan()) {
+                return Optional.empty();
+            }
+            return uploadStateManager.findDirectoryManifest(dir)
+                    .filter(manifest -> manifest.lastModifiedMillis() == lastModifiedMillis &&
+                            manifest.filterSignature().equals(preferences.scanFilterSignature()));
+        }
+
+        void emit(Path relevantDir) {
+            if (aborted.get()) {
+                return;
+            }
+            var files = filesByRelevantDir.remove(relevantDir);
+            var manifests = manifestsByRelevantDir.remove(relevantDir);
+            if (files != null) {
+                var fileSizes = ImmutableMap.<Path, Long>builder();
+                for (var file : files) {
+                    var size = sizeByFile.remove(file);
+                    if (size != null) {
+                        fileSizes.put(file, size);
+                    }
+                }
+                albumDirectoryConsumer.accept(AlbumDirectory.builder()
+                        .setPath(relevantDir)
+                        .setAlbumTitle(toAlbumTitle(relevantDir, preferences.albumDelimiter(), rootNameCount))
+                        .setFiles(files.stream().sorted().collect(toImmutableList()))
+                        .setFileSizes(fileSizes.build())
+                        .setDirectoryManifests(manifests == null ? ImmutableList.of() : manifests)
+                        .build());
+            } else if (manifests != null) {
+                // nothing to upload, so these directories are complete already
+                manifests.forEach(uploadStateManager::saveDirectoryManifest);
+            }
+        }
+    }
+
+    /**
+     * Lists one directory and forks a sub-task per subdirectory; mirrors {@link Files#walkFileTree} semantics: symbolic links are not followed, a
+     * directory that cannot be opened fails the scan and an error while iterating a directory is reported and skipped.
+     */
+    private static final class ScanDirectoryTask extends RecursiveAction {
+        private final Path dir;
+        private final int depth;
+        private final Path relevantDir;
+        private final long lastModifiedMillis;
+        private final ScanContext context;
+
+        ScanDirectoryTask(Path dir, int depth, Path relevantDir, long lastModifiedMillis, ScanContext context) {
+            this.dir = checkNotNull(dir);
+            this.depth = depth;
+            this.relevantDir = checkNotNull(relevantDir);
+            this.lastModifiedMillis = lastModifiedMillis;
+            this.context = checkNotNull(context);
+        }
+
+        @Override
+        protected void compute() {
+            if (context.aborted.get()) {
+                return;
+            }
+            var subDirectoryTasks = context.findUnchangedManifest(dir, lastModifiedMillis)
+                    .flatMap(this::subDirectoryTasksOfUnchangedDir)
+                    .orElseGet(this::listDirectory);
+            var isRelevantDir = dir.equals(relevantDir);
+            if (isRelevantDir && depth < context.relevantDepthLimit) {
+                // subdirectories are albums of their own, so this album is complete
+                context.emit(dir);
+            }
+            invokeAll(subDirectoryTasks);
+            if (isRelevantDir && depth >= context.relevantDepthLimit) {
+                // files in subdirectories belong to this album
+                context.emit(dir);
+            }
+        }
+
+        /**
+         * The files of an unchanged directory are all uploaded, so only its subdirectories are visited; empty if the manifest turns out to be
+         * stale, e.g. if a subdirectory was replaced by a file within the directory's timestamp granularity.
+         */
+        private Optional<List<ScanDirectoryTask>> subDirectoryTasksOfUnchangedDir(DirectoryManifest manifest) {
+            List<ScanDirectoryTask> subDirectoryTasks = new ArrayList<>(manifest.subdirectoryNames().size());
+            for (var subdirectoryName : manifest.subdirectoryNames()) {
+                var subDir = dir.resolve(subdirectoryName);
+                BasicFileAttributes attributes;
+                try {
+                    attributes = Files.readAttributes(subDir, BasicFileAttributes.class, NOFOLLOW_LINKS);
+                } catch (IOException e) {
+                    logger.debug("Manifest of {} is stale, subdirectory {} cannot be read", dir, subDir, e);
+                    return Optional.empty();
+                }
+                if (!attributes.isDirectory()) {
+                    logger.debug("Manifest of {} is stale, {} is no longer a directory", dir, subDir);
+                    return Optional.empty();
+                }
+                subDirectoryTasks.add(newSubDirectoryTask(subDir, attributes));
+            }
+            logger.debug("Directory unchanged since last upload, not listing: {}", dir);
+            context.unchangedDirectoryCount.incrementAndGet();
+            return Optional.of(subDirectoryTasks);
+        }
+
+        private List<ScanDirectoryTask> listDirectory() {
+            List<ScanDirectoryTask> subDirectoryTasks = new ArrayList<>();
+            var subdirectoryNames = ImmutableList.<String>builder();
+            try (var entries = Files.newDirectoryStream(dir)) {
+                for (var entry : entries) {
+                    if (context.aborted.get()) {
+                        return ImmutableList.of();
+                    }
+                    var attributes = Files.readAttributes(entry, BasicFileAttributes.class, NOFOLLOW_LINKS);
+                    if (attributes.isDirectory()) {
+                        if (context.preferences.shouldSkipDirectory(entry)) {
+                            logger.debug("Skipping directory as its contents are excluded by patterns: {}", entry);
+                        } else {
+                            subdirectoryNames.add(entry.getFileName().toString());
+                            subDirectoryTasks.add(newSubDirectoryTask(entry, attributes));
+                        }
+                    } else {
+                        visitFile(entry, attributes.size());
+                    }
+                }
+            } catch (DirectoryIteratorException e) {
+                // incomplete listing, so no manifest
+                context.progressStatus.addFailure(KeyedError.of(dir, humanReadableMessage(e.getCause())));
+                return subDirectoryTasks;
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            if (lastModifiedMillis >= context.manifestCutoffMillis) {
+                return subDirectoryTasks;
+            }
+            context.manifestsByRelevantDir.computeIfAbsent(relevantDir, ignored -> new ConcurrentLinkedQueue<>()).add(DirectoryManifest.builder()
+                    .setPath(dir)
+                    .setLastModifiedMillis(lastModifiedMillis)
+                    .setSubdirectoryNames(subdirectoryNames.build())
+                    .setFilterSignature(context.preferences.scanFilterSignature())
+                    .build());
+            return subDirectoryTasks;
+        }
+
+        private ScanDirectoryTask newSubDirectoryTask(Path subDir, BasicFileAttributes attributes) {
+            var subDirDepth = depth + 1;
+            var subDirRelevantDir = subDirDepth <= context.relevantDepthLimit ? subDir : relevantDir;
+            logger.debug("Relevant dir for {} is {}", subDir, subDirRelevantDir);
+            return new ScanDirectoryTask(subDir, subDirDepth, subDirRelevantDir, attributes.lastModifiedTime().toMillis(), context);
+        }
+
+        private void visitFile(Path file, long size) {
+            if (context.preferences.shouldIncludePath(file)) {
+                context.sizeByFile.put(file, size);
+                context.filesByRelevantDir.computeIfAbsent(relevantDir, ignored -> new ConcurrentLinkedQueue<>()).add(file);
+                context.progressStatus.updateDescription(file.toAbsolutePath().toString());
+                logger.debug("Including file: {}", file);
+                context.progressStatus.incrementSuccess();
+            } else {
+                logger.debug("Skipping file as it does not pass include/exclude pattern test: {}", file);
+            }
+        }
+    }
+
     @Value.Immutable
     @PackagePrivateImmutablesStyle
     interface BaseAlbumDirectory {
@@ -136,5 +386,15 @@ final class DirectoryStructureSupplierImpl implements DirectoryStructureSupplier
         Optional<String> albumTitle();
 
         List<Path> files();
+
+        /**
+         * Sizes of the {@link #files()} as seen by the scan.
+         */
+        Map<Path, Long> fileSizes();
+
+        /**
+         * Manifests of the directories that contributed files to this album, to be saved once their files are uploaded.
+         */
+        List<DirectoryManifest> directoryManifests();
     }
 }
\ No newline at end of file
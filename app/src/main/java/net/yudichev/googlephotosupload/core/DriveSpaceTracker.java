@@ -1,14 +1,17 @@
 package net.yudichev.googlephotosupload.core;
 
-import java.util.List;
 import java.util.concurrent.CompletableFuture;
 
 interface DriveSpaceTracker {
     CompletableFuture<Void> reset();
 
-    boolean validationEnabled();
-
+    /**
+     * Called before each file is uploaded.
+     *
+     * @throws IllegalStateException if the drive space limits set in preferences are reached, as estimated from the last measured usage plus
+     *                               the bytes uploaded since
+     */
     void beforeUpload();
 
-    void afterUpload(List<PathState> pathStates);
+    void afterUpload(long fileSize);
 }
@@ -1,30 +1,39 @@
 package net.yudichev.googlephotosupload.core;
 
 import com.google.common.collect.ImmutableSet;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import net.yudichev.jiotty.common.async.AsyncOperationRetry;
+import net.yudichev.jiotty.common.inject.BaseLifecycleComponent;
+import net.yudichev.jiotty.common.time.CurrentDateTimeProvider;
 import net.yudichev.jiotty.connector.google.drive.GoogleDriveClient;
 import net.yudichev.jiotty.connector.google.drive.GoogleDrivePath;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.inject.Inject;
-import java.nio.file.Files;
-import java.util.List;
+import java.time.Duration;
+import java.time.Instant;
 import java.util.Optional;
 import java.util.ResourceBundle;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 
 import static com.google.common.base.Preconditions.checkNotNull;
-import static com.google.common.util.concurrent.MoreExecutors.directExecutor;
 import static net.yudichev.jiotty.common.lang.Locks.inLock;
-import static net.yudichev.jiotty.common.lang.MoreThrowables.getAsUnchecked;
 
-final class DriveSpaceTrackerImpl implements DriveSpaceTracker {
+/**
+ * Validates uploads against a local estimate of drive usage: the last measured usage plus the bytes uploaded since. The remote quota is
+ * re-measured in the background on a dedicated thread, at most once per interval and only after enough data has been uploaded, so that upload
+ * threads never wait for it.
+ */
+final class DriveSpaceTrackerImpl extends BaseLifecycleComponent implements DriveSpaceTracker {
     private static final Logger logger = LoggerFactory.getLogger(DriveSpaceTrackerImpl.class);
 
-    private static final long CHECK_SPACE_EVERY_BYTES = 10 * 1024 * 1024; // 50 MB
+    private static final long CHECK_SPACE_EVERY_BYTES = 50 * 1024 * 1024; // 50 MB
+    private static final Duration MIN_CHECK_INTERVAL = Duration.ofMinutes(1);
     private static final ImmutableSet<String> FIELDS = ImmutableSet.of("storageQuota/limit", "storageQuota/usage");
     private static final byte[] NO_DATA = new byte[0];
     private final ProgressStatusFactory progressStatusFactory;
@@ -32,46 +41,66 @@ final class DriveSpaceTrackerImpl implements DriveSpaceTracker {
     private final PreferencesManager preferencesManager;
     private final ResourceBundle resourceBundle;
     private final AsyncOperationRetry asyncOperationRetry;
+    private final CurrentDateTimeProvider currentDateTimeProvider;
     private final Lock lock = new ReentrantLock();
 
+    private ExecutorService pollerExecutor;
     private ProgressStatus driveSpaceStatus;
-    private Optional<Long> limit;
+    private Optional<Long> limit = Optional.empty();
     private long usage;
     private long bytesUploaded;
     private long bytesUploadedSinceSpaceCheck;
+    private long bytesUploadedSinceUsageMeasured;
+    private boolean refreshInProgress;
+    private Instant lastRefreshInstant = Instant.MIN;
 
     @Inject
     DriveSpaceTrackerImpl(ProgressStatusFactory progressStatusFactory,
                           GoogleDriveClient googleDriveClient,
                           PreferencesManager preferencesManager,
                           ResourceBundle resourceBundle,
-                          AsyncOperationRetry asyncOperationRetry) {
+                          AsyncOperationRetry asyncOperationRetry,
+                          CurrentDateTimeProvider currentDateTimeProvider) {
         this.progressStatusFactory = progressStatusFactory;
         this.googleDriveClient = googleDriveClient;
         this.preferencesManager = checkNotNull(preferencesManager);
         this.resourceBundle = checkNotNull(resourceBundle);
         this.asyncOperationRetry = checkNotNull(asyncOperationRetry);
+        this.currentDateTimeProvider = checkNotNull(currentDateTimeProvider);
     }
 
     @Override
-    public CompletableFuture<Void> reset() {
-        return CompletableFuture.<Void>supplyAsync(() -> {
-            inLock(lock, () -> {
-                //noinspection AssignmentToNull assigned in the method called next
-                driveSpaceStatus = null;
-                refreshDriveQuota();
-            });
-            return null;
-        }).whenComplete((ignored, e) -> {
-            if (driveSpaceStatus != null && e != null) {
-                driveSpaceStatus.close(false);
-            }
+    protected void doStart() {
+        inLock(lock, () -> {
+            pollerExecutor = Executors.newSingleThreadExecutor(new ThreadFactoryBuilder()
+                    .setNameFormat("drive-quota-poller")
+                    .setDaemon(true)
+                    .build());
+        });
+    }
+
+    @Override
+    protected void doStop() {
+        inLock(lock, () -> {
+            pollerExecutor.shutdownNow();
+            //noinspection AssignmentToNull
+            pollerExecutor = null;
         });
     }
 
     @Override
-    public boolean validationEnabled() {
-        return inLock(lock, () -> preferencesManager.get().failOnDriveSpace().isPresent() && limit.isPresent());
+    public CompletableFuture<Void> reset() {
+        checkStarted();
+        var status = inLock(lock, () -> {
+            driveSpaceStatus = progressStatusFactory.create(resourceBundle.getString("driveSpaceStatusTitle"), Optional.empty());
+            return driveSpaceStatus;
+        });
+        return inLock(lock, this::refreshDriveQuota)
+                .whenComplete((ignored, e) -> {
+                    if (e != null) {
+                        status.close(false);
+                    }
+                });
     }
 
     @Override
@@ -84,17 +113,22 @@ final class DriveSpaceTrackerImpl implements DriveSpaceTracker {
     }
 
     @Override
-    public void afterUpload(List<PathState> pathStates) {
+    public void afterUpload(long fileSize) {
         inLock(lock, () -> {
-            var totalFileSize = pathStates.stream().map(PathState::path).mapToLong(path -> getAsUnchecked(() -> Files.size(path))).sum();
-            bytesUploaded += totalFileSize;
+            bytesUploaded += fileSize;
+            bytesUploadedSinceUsageMeasured += fileSize;
             refreshStatusDescription();
-            bytesUploadedSinceSpaceCheck += totalFileSize;
-            if (bytesUploadedSinceSpaceCheck > CHECK_SPACE_EVERY_BYTES) {
+            bytesUploadedSinceSpaceCheck += fileSize;
+            if (!refreshInProgress &&
+                    bytesUploadedSinceSpaceCheck > CHECK_SPACE_EVERY_BYTES &&
+                    !currentDateTimeProvider.currentInstant().isBefore(lastRefreshInstant.plus(MIN_CHECK_INTERVAL))) {
                 logger.debug("bytesUploadedSinceSpaceCheck ({}) > CHECK_SPACE_EVERY_BYTES ({})", bytesUploadedSinceSpaceCheck, CHECK_SPACE_EVERY_BYTES);
                 bytesUploadedSinceSpaceCheck = 0;
-                refreshDriveQuota();
-                validateUsage();
+                refreshDriveQuota().whenComplete((ignored, e) -> {
+                    if (e != null) {
+                        logger.warn("Failed to refresh drive quota, will keep relying on the estimate", e);
+                    }
+                });
             }
         });
     }
@@ -108,41 +142,47 @@ final class DriveSpaceTrackerImpl implements DriveSpaceTracker {
         }
     }
 
-    private void refreshDriveQuota() {
+    private CompletableFuture<Void> refreshDriveQuota() {
         logger.debug("Refreshing drive quota");
-        if (driveSpaceStatus == null) {
-            driveSpaceStatus = progressStatusFactory.create(resourceBundle.getString("driveSpaceStatusTitle"), Optional.empty());
-        }
-        asyncOperationRetry.withBackOffAndRetry("Get drive quota",
+        refreshInProgress = true;
+        lastRefreshInstant = currentDateTimeProvider.currentInstant();
+        var bytesUploadedBeforeRefresh = bytesUploaded;
+        var executor = pollerExecutor;
+        return asyncOperationRetry.withBackOffAndRetry("Get drive quota",
                         // Creating a file in Drive refreshes usage stats
-                        () -> googleDriveClient.getAppDataFolder(directExecutor()).createFile("file.txt", "text/plain", NO_DATA)
+                        () -> googleDriveClient.getAppDataFolder(executor).createFile("file.txt", "text/plain", NO_DATA)
                                 .thenCompose(GoogleDrivePath::delete)
-                                .thenCompose(ignored -> googleDriveClient.aboutDrive(FIELDS, directExecutor())),
+                                .thenCompose(ignored -> googleDriveClient.aboutDrive(FIELDS, executor)),
                         value -> {})
-                .thenAccept(about -> {
+                .thenAccept(about -> inLock(lock, () -> {
                     limit = Optional.ofNullable(about.getStorageQuota().getLimit());
                     var usage = about.getStorageQuota().getUsage();
                     if (usage != null) {
                         limit.map(DriveSpaceTrackerImpl::toMegabytes).ifPresent(newValue -> driveSpaceStatus.updateTotal(newValue.intValue()));
                         this.usage = usage;
+                        // uploads that completed while the usage was being measured may not be reflected in it
+                        bytesUploadedSinceUsageMeasured = bytesUploaded - bytesUploadedBeforeRefresh;
                         //noinspection NumericCastThatLosesPrecision
                         driveSpaceStatus.updateSuccess((int) toMegabytes(usage));
                         refreshStatusDescription();
                     }
-                })
-                .getNow(null); // otherwise any exceptions will be silently swallowed;
+                }))
+                .whenComplete((ignored, e) -> inLock(lock, () -> {
+                    refreshInProgress = false;
+                }));
     }
 
     private void validateUsage() {
+        var estimatedUsage = usage + bytesUploadedSinceUsageMeasured;
         preferencesManager.get().failOnDriveSpace().ifPresent(option -> limit.ifPresent(limitBytes -> option.minFreeMegabytes().ifPresentOrElse(
                 minFreeMegabytes -> {
-                    if (toMegabytes(limitBytes - usage) <= minFreeMegabytes) {
+                    if (toMegabytes(limitBytes - estimatedUsage) <= minFreeMegabytes) {
                         throw new IllegalStateException(String.format(resourceBundle.getString("driveSpaceMinFreeSpaceViolated"), minFreeMegabytes));
                     }
                 },
                 () -> {
                     //noinspection OptionalGetWithoutIsPresent mutually exclusive
-                    if (toMegabytes(usage / limitBytes * 100) >= option.maxUsedPercentage().get()) {
+                    if (estimatedUsage * 100.0 / limitBytes >= option.maxUsedPercentage().get()) {
                         throw new IllegalStateException(String
                                 .format(resourceBundle.getString("driveSpaceMaxUsedPercentageViolated"), option.maxUsedPercentage().get()));
                     }
@@ -5,13 +5,21 @@ import net.yudichev.jiotty.connector.google.photos.GooglePhotosAlbum;
 
 import java.nio.file.Path;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
 import java.util.concurrent.CompletableFuture;
 
 interface GooglePhotosUploader extends LifecycleComponent {
-    CompletableFuture<Void> uploadDirectory(Optional<GooglePhotosAlbum> googlePhotosAlbum,
-                                            List<Path> files,
-                                            ProgressStatus directoryProgressStatus, ProgressStatus fileProgressStatus);
+    /**
+     * @param googlePhotosAlbumFuture the album may still be resolving; media data is uploaded meanwhile and only adding to the album waits for it
+     * @param fileSizes               sizes of the files as seen by the scan, used to schedule uploads and to account for the uploaded bytes; a missing one counts as empty
+     * @return files that have been uploaded, by this call or previously, except those whose media items this call failed to add to the album
+     */
+    CompletableFuture<Set<Path>> uploadDirectory(CompletableFuture<Optional<GooglePhotosAlbum>> googlePhotosAlbumFuture,
+                                                 List<Path> files,
+                                                 Map<Path, Long> fileSizes,
+                                                 ProgressStatus directoryProgressStatus, ProgressStatus fileProgressStatus);
 
     void doNotResume();
 
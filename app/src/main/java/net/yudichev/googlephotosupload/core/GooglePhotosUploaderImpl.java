@@ -1,10 +1,9 @@
 package net.yudichev.googlephotosupload.core;
 
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Lists;
 import com.google.rpc.Code;
-import net.yudichev.jiotty.common.async.AsyncOperationFailureHandler;
-import net.yudichev.jiotty.common.async.AsyncOperationRetry;
 import net.yudichev.jiotty.common.inject.BaseLifecycleComponent;
 import net.yudichev.jiotty.common.lang.ResultOrFailure;
 import net.yudichev.jiotty.common.time.CurrentDateTimeProvider;
@@ -16,43 +15,51 @@ import org.slf4j.LoggerFactory;
 
 import javax.inject.Inject;
 import javax.inject.Provider;
+import java.io.IOException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.ResourceBundle;
+import java.util.Set;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
-import java.util.function.Function;
 
 import static com.google.common.base.Preconditions.checkNotNull;
 import static com.google.common.base.Preconditions.checkState;
 import static com.google.common.collect.ImmutableList.toImmutableList;
-import static java.time.temporal.ChronoUnit.HOURS;
+import static com.google.common.collect.ImmutableMap.toImmutableMap;
+import static com.google.common.collect.ImmutableSet.toImmutableSet;
 import static java.util.Comparator.comparing;
 import static java.util.concurrent.CompletableFuture.completedFuture;
+import static java.util.concurrent.CompletableFuture.delayedExecutor;
+import static java.util.concurrent.CompletableFuture.runAsync;
 import static java.util.concurrent.CompletableFuture.supplyAsync;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
 import static java.util.stream.Collectors.toConcurrentMap;
 import static java.util.stream.Collectors.toList;
+import static net.yudichev.googlephotosupload.core.AddToAlbumMethod.WHILE_CREATING_ITEMS;
+import static net.yudichev.googlephotosupload.core.ApiOperationClass.ALBUM_MODIFICATION;
+import static net.yudichev.googlephotosupload.core.ApiOperationClass.MEDIA_DATA_UPLOAD;
 import static net.yudichev.googlephotosupload.core.Bindings.Backpressured;
-import static net.yudichev.jiotty.common.lang.CompletableFutures.toFutureOfList;
+import static net.yudichev.googlephotosupload.core.Bindings.MediaUpload;
 import static net.yudichev.jiotty.common.lang.CompletableFutures.toFutureOfListChaining;
 import static net.yudichev.jiotty.common.lang.ResultOrFailure.failure;
 import static net.yudichev.jiotty.common.lang.ResultOrFailure.success;
 
 final class GooglePhotosUploaderImpl extends BaseLifecycleComponent implements GooglePhotosUploader {
     public static final int GOOGLE_PHOTOS_API_BATCH_SIZE = 50;
-    /**
-     * Max number of media items to upload in one directory before drive space is checked; only applicable if drive space check is enabled.
-     */
-    public static final int DRIVE_SPACE_MONITORING_BATCH_SIZE = 20;
 
     @SuppressWarnings("NonConstantLogger") // as designed
     private final Logger logger = LoggerFactory.getLogger(getClass());
-    private final AsyncOperationRetry asyncOperationRetry;
+    private final ApiOperationRetry apiOperationRetry;
     private final AddToAlbumStrategy addToAlbumStrategy;
+    private final MediaItemCreationBatcher mediaItemCreationBatcher;
     private final DriveSpaceTracker driveSpaceTracker;
     private final ResourceBundle resourceBundle;
     private final FatalUserCorrectableRemoteApiExceptionHandler fatalUserCorrectableHandler;
@@ -60,74 +67,116 @@ final class GooglePhotosUploaderImpl extends BaseLifecycleComponent implements G
     private final UploadStateManager uploadStateManager;
     private final CurrentDateTimeProvider currentDateTimeProvider;
     private final Provider<ExecutorService> executorServiceProvider;
-    private final AsyncOperationFailureHandler backOffHandler;
+    private final Provider<ExecutorService> mediaUploadExecutorServiceProvider;
+    private final UploadConcurrencyLimiter uploadConcurrencyLimiter;
+    private final PreferencesManager preferencesManager;
+    private final Map<Path, String> contentFingerprintByPendingPath = new ConcurrentHashMap<>();
+    private final Map<Path, String> reusedMediaIdByPath = new ConcurrentHashMap<>();
+    private final UploadTokenLifetimeHandOver uploadTokenLifetimeHandOver;
 
     // memory barrier for access to non-finals (as we must survive a restart), but should NOT be used to guard internal state of any other objects
     private volatile boolean memoryBarrier = true;
 
     private ExecutorService executorService;
+    private ExecutorService mediaUploadExecutorService;
     private Map<Path, CompletableFuture<ItemState>> uploadedItemStateByPath;
+    private boolean lazyUploadState;
+    private boolean deduplicateByContent;
     private boolean requestedToForgetUploadStateOnShutdown;
 
     @Inject
     GooglePhotosUploaderImpl(GooglePhotosClient googlePhotosClient,
                              @Backpressured Provider<ExecutorService> executorServiceProvider,
-                             AsyncOperationFailureHandler backOffHandler,
+                             @MediaUpload Provider<ExecutorService> mediaUploadExecutorServiceProvider,
                              FatalUserCorrectableRemoteApiExceptionHandler fatalUserCorrectableHandler,
                              UploadStateManager uploadStateManager,
                              CurrentDateTimeProvider currentDateTimeProvider,
-                             AsyncOperationRetry asyncOperationRetry,
+                             ApiOperationRetry apiOperationRetry,
                              AddToAlbumStrategy addToAlbumStrategy,
+                             MediaItemCreationBatcher mediaItemCreationBatcher,
                              DriveSpaceTracker driveSpaceTracker,
+                             UploadConcurrencyLimiter uploadConcurrencyLimiter,
+                             PreferencesManager preferencesManager,
                              ResourceBundle resourceBundle) {
         this.executorServiceProvider = checkNotNull(executorServiceProvider);
-        this.backOffHandler = checkNotNull(backOffHandler);
+        this.mediaUploadExecutorServiceProvider = checkNotNull(mediaUploadExecutorServiceProvider);
         this.fatalUserCorrectableHandler = checkNotNull(fatalUserCorrectableHandler);
         this.googlePhotosClient = checkNotNull(googlePhotosClient);
         this.uploadStateManager = checkNotNull(uploadStateManager);
         this.currentDateTimeProvider = checkNotNull(currentDateTimeProvider);
-        this.asyncOperationRetry = checkNotNull(asyncOperationRetry);
+        this.apiOperationRetry = checkNotNull(apiOperationRetry);
         this.addToAlbumStrategy = checkNotNull(addToAlbumStrategy);
+        this.mediaItemCreationBatcher = checkNotNull(mediaItemCreationBatcher);
         this.driveSpaceTracker = checkNotNull(driveSpaceTracker);
+        this.uploadConcurrencyLimiter = checkNotNull(uploadConcurrencyLimiter);
+        this.preferencesManager = checkNotNull(preferencesManager);
         this.resourceBundle = checkNotNull(resourceBundle);
+        uploadTokenLifetimeHandOver = new UploadTokenLifetimeHandOver(currentDateTimeProvider,
+                delay -> runAsync(() -> {}, delayedExecutor(delay.toMillis(), MILLISECONDS, executorService)),
+                resourceBundle);
     }
 
     @Override
-    public CompletableFuture<Void> uploadDirectory(Optional<GooglePhotosAlbum> googlePhotosAlbum,
-                                                   List<Path> files,
-                                                   ProgressStatus directoryProgressStatus,
-                                                   ProgressStatus fileProgressStatus) {
+    public CompletableFuture<Set<Path>> uploadDirectory(CompletableFuture<Optional<GooglePhotosAlbum>> googlePhotosAlbumFuture,
+                                                        List<Path> files,
+                                                        Map<Path, Long> fileSizes,
+                                                        ProgressStatus directoryProgressStatus,
+                                                        ProgressStatus fileProgressStatus) {
         checkStarted();
 
-        return supplyAsync(() -> files, executorService)
+        return supplyAsync(() -> {
+            if (lazyUploadState) {
+                prefetchItemStates(files);
+            }
+            return files;
+        }, mediaUploadExecutorService)
                 .thenCompose(paths -> {
-                    directoryProgressStatus.updateDescription(googlePhotosAlbum.map(GooglePhotosAlbum::getTitle).orElse(""));
                     var sortedPaths = paths.stream()
                             .sorted(comparing(path -> path.getFileName().toString()))
                             .collect(toList());
-                    Function<List<Path>, CompletableFuture<Void>> uploader = partition -> {
-                        var createMediaDataResultsFuture = partition.stream()
-                                .map(path -> createMediaData(path, fileProgressStatus)
-                                        .thenApply(itemState -> {
-                                            itemState.toFailure().ifPresentOrElse(
-                                                    error -> fileProgressStatus.addFailure(KeyedError.of(path, error)),
-                                                    fileProgressStatus::incrementSuccess);
-                                            return PathState.of(path, itemState);
-                                        }))
-                                .collect(toFutureOfList());
-                        return addToAlbumStrategy.addToAlbum(
-                                createMediaDataResultsFuture,
-                                googlePhotosAlbum,
-                                fileProgressStatus,
-                                directoryProgressStatus,
-                                (albumId, pathStates) -> createMediaItems(albumId, fileProgressStatus, pathStates),
-                                this::getItemState);
-                    };
-                    return driveSpaceTracker.validationEnabled() ?
-                            Lists.partition(sortedPaths, DRIVE_SPACE_MONITORING_BATCH_SIZE).stream()
-                                    .collect(toFutureOfListChaining(partition -> uploader.apply(files)))
-                                    .<Void>thenApply(list -> null) :
-                            uploader.apply(sortedPaths);
+                    // media data does not depend on the album, so it is uploaded while the album is still being resolved;
+                    // drive space is checked before each file, so files are not held back in batches for that.
+                    // Largest files are started first so that they do not end up streaming alone at the tail while other workers idle,
+                    // smaller ones fill the gaps; media items are still created in file name order
+                    var sizeByPath = sortedPaths.stream()
+                            .collect(toImmutableMap(path -> path, path -> fileSizes.getOrDefault(path, 0L)));
+                    Map<Path, CompletableFuture<PathState>> pathStateFutureByPath = new HashMap<>(sortedPaths.size());
+                    sortedPaths.stream()
+                            .sorted(Comparator.<Path>comparingLong(sizeByPath::get).reversed())
+                            .forEach(path -> pathStateFutureByPath.put(path, createMediaData(path, sizeByPath.get(path), fileProgressStatus)
+                                    .thenApply(itemState -> {
+                                        itemState.toFailure().ifPresentOrElse(
+                                                error -> fileProgressStatus.addFailure(KeyedError.of(path, error)),
+                                                fileProgressStatus::incrementSuccess);
+                                        return PathState.of(path, itemState);
+                                    })));
+                    List<CompletableFuture<PathState>> pathStateFutures = sortedPaths.stream()
+                            .map(pathStateFutureByPath::get)
+                            .collect(toImmutableList());
+                    Set<Path> notAddedToAlbum = ConcurrentHashMap.newKeySet();
+                    // the sorted strategy orders what it is given, so it needs the whole directory at once
+                    var handOverInLeadingBatches = preferencesManager.get().addToAlbumStrategy()
+                            .filter(addToAlbumMethod -> addToAlbumMethod == WHILE_CREATING_ITEMS)
+                            .isPresent();
+                    return googlePhotosAlbumFuture.thenCompose(googlePhotosAlbum -> {
+                        directoryProgressStatus.updateDescription(googlePhotosAlbum.map(GooglePhotosAlbum::getTitle).orElse(""));
+                        return uploadTokenLifetimeHandOver.handOver(pathStateFutures, handOverInLeadingBatches, fileProgressStatus,
+                                        createMediaDataResultsFuture -> addToAlbumStrategy.addToAlbum(
+                                                        createMediaDataResultsFuture,
+                                                        googlePhotosAlbum,
+                                                        fileProgressStatus,
+                                                        directoryProgressStatus,
+                                                        (albumId, pathStates) -> createMediaItems(albumId, fileProgressStatus, pathStates),
+                                                        this::getItemState)
+                                                .thenAccept(notAddedToAlbum::addAll))
+                                .thenCompose(ignored -> addReusedItemsToAlbum(googlePhotosAlbum, sortedPaths, fileProgressStatus))
+                                .thenAccept(notAddedToAlbum::addAll);
+                    }).thenApply(ignored -> uploadedFiles(files, notAddedToAlbum));
+                })
+                .whenComplete((ignored, e) -> {
+                    if (lazyUploadState) {
+                        evictItemStates(files);
+                    }
                 });
     }
 
@@ -146,10 +195,18 @@ final class GooglePhotosUploaderImpl extends BaseLifecycleComponent implements G
     @Override
     protected void doStart() {
         executorService = executorServiceProvider.get();
-        uploadedItemStateByPath = uploadStateManager.loadUploadedMediaItemIdByAbsolutePath().entrySet().stream()
-                .collect(toConcurrentMap(
-                        entry -> Paths.get(entry.getKey()),
-                        entry -> completedFuture(entry.getValue())));
+        mediaUploadExecutorService = mediaUploadExecutorServiceProvider.get();
+        lazyUploadState = preferencesManager.get().lazyUploadState();
+        deduplicateByContent = preferencesManager.get().deduplicateByContent();
+        if (lazyUploadState) {
+            logger.info("Upload state will be loaded per directory");
+            uploadedItemStateByPath = new ConcurrentHashMap<>();
+        } else {
+            uploadedItemStateByPath = uploadStateManager.loadUploadedMediaItemIdByAbsolutePath().entrySet().stream()
+                    .collect(toConcurrentMap(
+                            entry -> Paths.get(entry.getKey()),
+                            entry -> completedFuture(entry.getValue())));
+        }
         memoryBarrier = true;
     }
 
@@ -163,6 +220,39 @@ final class GooglePhotosUploaderImpl extends BaseLifecycleComponent implements G
         memoryBarrier = true;
     }
 
+    private void prefetchItemStates(List<Path> files) {
+        checkState(memoryBarrier);
+        var fileSet = ImmutableSet.copyOf(files);
+        files.stream()
+                .map(Path::getParent)
+                .distinct()
+                .forEach(directory -> uploadStateManager.loadItemStatesInDirectory(directory).forEach((pathString, itemState) -> {
+                    var path = Paths.get(pathString);
+                    if (fileSet.contains(path)) {
+                        uploadedItemStateByPath.putIfAbsent(path, completedFuture(itemState));
+                    }
+                }));
+    }
+
+    private void evictItemStates(List<Path> files) {
+        // all states are persisted by now; retain only those still in progress (e.g. same file being uploaded as part of another album)
+        files.forEach(path -> uploadedItemStateByPath.computeIfPresent(path,
+                (thePath, itemStateFuture) -> itemStateFuture.isDone() ? null : itemStateFuture));
+    }
+
+    private Set<Path> uploadedFiles(List<Path> files, Set<Path> notAddedToAlbum) {
+        return files.stream()
+                .filter(path -> !notAddedToAlbum.contains(path))
+                .filter(path -> {
+                    var itemStateFuture = uploadedItemStateByPath.get(path);
+                    return itemStateFuture != null &&
+                            itemStateFuture.isDone() &&
+                            !itemStateFuture.isCompletedExceptionally() &&
+                            itemStateFuture.join().mediaId().isPresent();
+                })
+                .collect(toImmutableSet());
+    }
+
     private ItemState getItemState(Path path) {
         var itemState = uploadedItemStateByPath.get(path).getNow(null);
         checkState(itemState != null, "item state future must be completed");
@@ -194,12 +284,10 @@ final class GooglePhotosUploaderImpl extends BaseLifecycleComponent implements G
                         .setFileName(pathState.path().getFileName().toString())
                         .build())
                 .collect(toImmutableList());
-        return asyncOperationRetry.withBackOffAndRetry(
-                        "create media items",
-                        () -> googlePhotosClient.createMediaItems(
-                                albumId,
-                                pendingNewMediaItems,
-                                createMediaItemsExecutor(pendingPathStates, fileProgressStatus)),
+        return mediaItemCreationBatcher.createMediaItems(
+                        albumId,
+                        pendingNewMediaItems,
+                        createMediaItemsExecutor(pendingPathStates, fileProgressStatus),
                         fileProgressStatus::onBackoffDelay)
                 .<List<PathMediaItemOrError>>thenApply(mediaItemOrErrors -> {
                     ImmutableList.Builder<PathMediaItemOrError> resultListBuilder = ImmutableList.builder();
@@ -209,6 +297,10 @@ final class GooglePhotosUploaderImpl extends BaseLifecycleComponent implements G
                         mediaItemOrError.errorStatus().ifPresent(status -> fileProgressStatus.addFailure(
                                 KeyedError.of(pathState.path(), Code.forNumber(status.getCode()) + ": " + status.getMessage())));
                         mediaItemOrError.item().ifPresent(item -> {
+                            var contentFingerprint = contentFingerprintByPendingPath.remove(pathState.path());
+                            if (contentFingerprint != null) {
+                                uploadStateManager.saveContentFingerprint(contentFingerprint, item.getId());
+                            }
                             uploadedItemStateByPath.compute(pathState.path(),
                                     (path, itemStateFuture) -> checkNotNull(itemStateFuture).thenApply(itemState -> {
                                         var newItemState = itemState.withMediaId(item.getId());
@@ -234,38 +326,36 @@ final class GooglePhotosUploaderImpl extends BaseLifecycleComponent implements G
 
     private void forgetUploadState() {
         checkState(memoryBarrier);
-        logger.info("Was asked not to resume - forgetting {} previously uploaded item(s)", uploadedItemStateByPath.size());
+        logger.info("Was asked not to resume - forgetting {} previously uploaded item(s)",
+                lazyUploadState ? uploadStateManager.itemCount() : uploadedItemStateByPath.size());
         uploadStateManager.forgetState();
         uploadedItemStateByPath.clear();
+        contentFingerprintByPendingPath.clear();
+        reusedMediaIdByPath.clear();
         memoryBarrier = true;
     }
 
-    private CompletableFuture<ResultOrFailure<ItemState>> createMediaData(Path file, ProgressStatus fileProgressStatus) {
+    private CompletableFuture<ResultOrFailure<ItemState>> createMediaData(Path file, long fileSize, ProgressStatus fileProgressStatus) {
         checkStarted();
         checkState(memoryBarrier);
         return uploadedItemStateByPath.compute(file,
                         (theFile, currentFuture) -> {
                             if (currentFuture == null || currentFuture.isCompletedExceptionally()) {
                                 logger.info("Scheduling upload of {}", file);
-                                currentFuture = doCreateMediaData(theFile, fileProgressStatus);
+                                currentFuture = doCreateMediaData(theFile, fileSize, fileProgressStatus);
                             } else {
                                 var itemState = currentFuture.getNow(null);
                                 if (itemState != null) {
-                                    currentFuture = itemState.uploadState()
-                                            .filter(uploadMediaItemState -> {
-                                                if (itemState.mediaId().isPresent()) {
-                                                    return true;
-                                                }
-                                                return uploadTokenNotExpired(file, uploadMediaItemState);
-                                            })
-                                            .map(uploadMediaItemState -> {
-                                                logger.info("Media data already uploaded, skipping: {}", file);
-                                                return completedFuture(itemState);
-                                            })
-                                            .orElseGet(() -> {
-                                                logger.info("Media data uploaded, but upload token expired, re-uploading: {}", file);
-                                                return doCreateMediaData(theFile, fileProgressStatus);
-                                            });
+                                    // a media ID without upload state is valid: the item was created from content uploaded for another path
+                                    if (itemState.mediaId().isPresent() || itemState.uploadState()
+                                            .filter(uploadMediaItemState -> uploadTokenNotExpired(file, uploadMediaItemState))
+                                            .isPresent()) {
+                                        logger.info("Media data already uploaded, skipping: {}", file);
+                                        currentFuture = completedFuture(itemState);
+                                    } else {
+                                        logger.info("Media data uploaded, but upload token expired, re-uploading: {}", file);
+                                        currentFuture = doCreateMediaData(theFile, fileSize, fileProgressStatus);
+                                    }
                                 } else {
                                     logger.error("Unexpected future state for {}: {}", file, currentFuture);
                                 }
@@ -275,26 +365,15 @@ final class GooglePhotosUploaderImpl extends BaseLifecycleComponent implements G
                 .thenApply(itemState -> {
                     checkState(memoryBarrier);
                     uploadStateManager.saveItemState(file, itemState);
-                    backOffHandler.reset();
                     return success(itemState);
                 })
-                .exceptionallyCompose(exception -> {
-                    var operationName = "uploading file " + file;
-                    return fatalUserCorrectableHandler.handle(operationName, exception)
-                            .<CompletableFuture<ResultOrFailure<ItemState>>>map(errorMessage -> completedFuture(failure(errorMessage)))
-                            .orElseGet(() -> {
-                                if (backOffHandler.handle(operationName, exception).isPresent()) {
-                                    logger.debug("Retrying upload of {}", file);
-                                    return createMediaData(file, fileProgressStatus);
-                                } else {
-                                    throw new RuntimeException(exception);
-                                }
-                            });
-                });
+                .exceptionally(exception -> fatalUserCorrectableHandler.handle("uploading file " + file, exception)
+                        .<ResultOrFailure<ItemState>>map(errorMessage -> failure(errorMessage))
+                        .orElseThrow(() -> new RuntimeException(exception)));
     }
 
     private boolean uploadTokenNotExpired(Path file, UploadMediaItemState uploadMediaItemState) {
-        var expiry = uploadMediaItemState.uploadInstant().plus(23, HOURS);
+        var expiry = uploadMediaItemState.uploadInstant().plus(UploadTokenLifetimeHandOver.UPLOAD_TOKEN_LIFETIME);
         var notExpired = expiry.isAfter(currentDateTimeProvider.currentInstant());
         if (!notExpired) {
             logger.debug("upload token for {} expired, forgetting: {}", file, uploadMediaItemState);
@@ -302,11 +381,86 @@ final class GooglePhotosUploaderImpl extends BaseLifecycleComponent implements G
         return notExpired;
     }
 
-    private CompletableFuture<ItemState> doCreateMediaData(Path file, ProgressStatus fileProgressStatus) {
-        return googlePhotosClient.uploadMediaData(file, createMediaDataExecutor(file, fileProgressStatus))
+    private CompletableFuture<ItemState> doCreateMediaData(Path file, long fileSize, ProgressStatus fileProgressStatus) {
+        if (!deduplicateByContent) {
+            return doUploadMediaData(file, fileSize, fileProgressStatus);
+        }
+        return supplyAsync(() -> contentFingerprint(file), mediaUploadExecutorService)
+                .thenCompose(contentFingerprint -> contentFingerprint
+                        .flatMap(fingerprint -> uploadStateManager.findMediaIdByContentFingerprint(fingerprint)
+                                .map(mediaId -> {
+                                    logger.info("Content of {} already uploaded as media item {}, reusing", file, mediaId);
+                                    reusedMediaIdByPath.put(file, mediaId);
+                                    return completedFuture(ItemState.builder().setMediaId(mediaId).build());
+                                }))
+                        .orElseGet(() -> {
+                            contentFingerprint.ifPresent(fingerprint -> contentFingerprintByPendingPath.put(file, fingerprint));
+                            return doUploadMediaData(file, fileSize, fileProgressStatus);
+                        }));
+    }
+
+    private Optional<String> contentFingerprint(Path file) {
+        try {
+            return Optional.of(ContentFingerprint.of(file));
+        } catch (IOException e) {
+            logger.warn("Unable to fingerprint {}, it will be uploaded without de-duplication", file, e);
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * @return files whose reused media items could not be added to the album
+     */
+    private CompletableFuture<Set<Path>> addReusedItemsToAlbum(Optional<GooglePhotosAlbum> googlePhotosAlbum,
+                                                               List<Path> files,
+                                                               ProgressStatus fileProgressStatus) {
+        var reusedMediaIdsByPath = files.stream()
+                .filter(reusedMediaIdByPath::containsKey)
+                .collect(toImmutableMap(path -> path, reusedMediaIdByPath::remove, (mediaId1, mediaId2) -> mediaId1));
+        if (reusedMediaIdsByPath.isEmpty() || googlePhotosAlbum.isEmpty()) {
+            return completedFuture(ImmutableSet.of());
+        }
+        var album = googlePhotosAlbum.get();
+        var mediaIds = reusedMediaIdsByPath.values().stream().distinct().collect(toImmutableList());
+        return Lists.partition(mediaIds, GOOGLE_PHOTOS_API_BATCH_SIZE).stream()
+                .collect(toFutureOfListChaining(batch -> apiOperationRetry.withBackOffAndRetry(
+                        ALBUM_MODIFICATION,
+                        "add reused items to album",
+                        executorService,
+                        () -> album.addMediaItemsByIds(batch, executorService),
+                        fileProgressStatus::onBackoffDelay)))
+                .<Set<Path>>thenApply(ignored -> ImmutableSet.of())
+                .exceptionally(throwable -> fatalUserCorrectableHandler.handle("adding items to album " + album.getTitle(), throwable)
+                        .map(errorMessage -> {
+                            reusedMediaIdsByPath.keySet().forEach(path -> fileProgressStatus.addFailure(KeyedError.of(path, errorMessage)));
+                            return reusedMediaIdsByPath.keySet();
+                        })
+                        .orElseThrow(() -> new RuntimeException(throwable)));
+    }
+
+    /**
+     * The whole file is sent in one request: {@link GooglePhotosClient#uploadMediaData} exposes neither the resumable upload session nor the
+     * credentials to drive one, so an interrupted transfer is retried from the first byte. Only the resulting upload token is kept across
+     * restarts.
+     *
+     * @param fileSize as seen by the scan
+     */
+    private CompletableFuture<ItemState> doUploadMediaData(Path file, long fileSize, ProgressStatus fileProgressStatus) {
+        return apiOperationRetry.withBackOffAndRetry(
+                        MEDIA_DATA_UPLOAD,
+                        "uploading file " + file,
+                        mediaUploadExecutorService,
+                        () -> uploadConcurrencyLimiter.withPermit(() -> {
+                            // fails the upload if the drive space limit is reached
+                            driveSpaceTracker.beforeUpload();
+                            return googlePhotosClient.uploadMediaData(file, createMediaDataExecutor(file, fileProgressStatus));
+                        }),
+                        fileProgressStatus::onBackoffDelay)
                 .thenApply(uploadToken -> {
                     logger.info("Uploaded file {}", file);
                     logger.debug("Upload token {}", uploadToken);
+                    uploadConcurrencyLimiter.onUploaded(fileSize);
+                    driveSpaceTracker.afterUpload(fileSize);
                     return ItemState.builder()
                             .setUploadState(UploadMediaItemState.of(uploadToken, currentDateTimeProvider.currentInstant()))
                             .build();
@@ -314,9 +468,8 @@ final class GooglePhotosUploaderImpl extends BaseLifecycleComponent implements G
     }
 
     private Executor createMediaDataExecutor(Path file, ProgressStatus fileProgressStatus) {
-        return command -> executorService.execute(() -> {
+        return command -> mediaUploadExecutorService.execute(() -> {
             fileProgressStatus.updateDescription(file.toAbsolutePath().toString());
-            driveSpaceTracker.beforeUpload();
             command.run();
         });
     }
@@ -325,7 +478,6 @@ final class GooglePhotosUploaderImpl extends BaseLifecycleComponent implements G
         return command -> executorService.execute(() -> {
             fileProgressStatus.updateDescription(String.format(resourceBundle.getString("uploaderFinalizing"), pathStates.size()));
             command.run();
-            driveSpaceTracker.afterUpload(pathStates);
         });
     }
 }
@@ -0,0 +1,25 @@
+package net.yudichev.googlephotosupload.core;
+
+import net.yudichev.jiotty.connector.google.photos.MediaItemOrError;
+import net.yudichev.jiotty.connector.google.photos.NewMediaItem;
+
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.function.LongConsumer;
+
+/**
+ * Combines media item creation requests, possibly coming from different directories, into full API batches per target album.
+ */
+interface MediaItemCreationBatcher {
+    /**
+     * @param executor             completes the returned future; also used for the API call if this request is the first in its batch
+     * @param backoffEventConsumer notified of back off of the batch this request ends up in
+     * @return results in the order of {@code newMediaItems}
+     */
+    CompletableFuture<List<MediaItemOrError>> createMediaItems(Optional<String> albumId,
+                                                               List<NewMediaItem> newMediaItems,
+                                                               Executor executor,
+                                                               LongConsumer backoffEventConsumer);
+}
@@ -0,0 +1,220 @@
+package net.yudichev.googlephotosupload.core;
+
+import com.google.common.collect.ImmutableList;
+import com.google.inject.BindingAnnotation;
+import net.yudichev.jiotty.connector.google.photos.GooglePhotosClient;
+import net.yudichev.jiotty.connector.google.photos.MediaItemOrError;
+import net.yudichev.jiotty.connector.google.photos.NewMediaItem;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.inject.Inject;
+import java.lang.annotation.Retention;
+import java.lang.annotation.Target;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.LongConsumer;
+import java.util.stream.IntStream;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.collect.ImmutableList.toImmutableList;
+import static java.lang.annotation.ElementType.*;
+import static java.lang.annotation.RetentionPolicy.RUNTIME;
+import static java.util.concurrent.CompletableFuture.delayedExecutor;
+import static java.util.concurrent.CompletableFuture.runAsync;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static net.yudichev.googlephotosupload.core.ApiOperationClass.MEDIA_ITEM_CREATION;
+import static net.yudichev.googlephotosupload.core.GooglePhotosUploaderImpl.GOOGLE_PHOTOS_API_BATCH_SIZE;
+import static net.yudichev.jiotty.common.lang.Locks.inLock;
+
+/**
+ * A batch is sent once it is full or once its first request has waited for {@link MaxBatchDelay}. Requests are only combined for the API call:
+ * items that fail in a combined batch are sent again, so that they do not fail just because of their neighbours from another directory, and
+ * each request is completed on its own executor.
+ */
+final class MediaItemCreationBatcherImpl implements MediaItemCreationBatcher {
+    private static final Logger logger = LoggerFactory.getLogger(MediaItemCreationBatcherImpl.class);
+
+    private final GooglePhotosClient googlePhotosClient;
+    private final ApiOperationRetry apiOperationRetry;
+    private final Duration maxBatchDelay;
+    private final Lock lock = new ReentrantLock();
+    private final Map<Optional<String>, List<Request>> pendingRequestsByAlbumId = new HashMap<>();
+
+    @Inject
+    MediaItemCreationBatcherImpl(GooglePhotosClient googlePhotosClient,
+                                 ApiOperationRetry apiOperationRetry,
+                                 @MaxBatchDelay Duration maxBatchDelay) {
+        this.googlePhotosClient = checkNotNull(googlePhotosClient);
+        this.apiOperationRetry = checkNotNull(apiOperationRetry);
+        this.maxBatchDelay = checkNotNull(maxBatchDelay);
+    }
+
+    @Override
+    public CompletableFuture<List<MediaItemOrError>> createMediaItems(Optional<String> albumId,
+                                                                      List<NewMediaItem> newMediaItems,
+                                                                      Executor executor,
+                                                                      LongConsumer backoffEventConsumer) {
+        var request = new Request(newMediaItems, executor, backoffEventConsumer);
+        var batchesToSend = inLock(lock, () -> {
+            List<List<Request>> fullBatches = new ArrayList<>(2);
+            var pendingRequests = pendingRequestsByAlbumId.get(albumId);
+            if (pendingRequests != null && itemCount(pendingRequests) + newMediaItems.size() > GOOGLE_PHOTOS_API_BATCH_SIZE) {
+                fullBatches.add(pendingRequestsByAlbumId.remove(albumId));
+                pendingRequests = null;
+            }
+            if (pendingRequests == null) {
+                var newPendingRequests = new ArrayList<Request>();
+                pendingRequestsByAlbumId.put(albumId, newPendingRequests);
+                runAsync(() -> {}, delayedExecutor(maxBatchDelay.toMillis(), MILLISECONDS, executor))
+                        .thenRun(() -> sendIfStillPending(albumId, newPendingRequests));
+                pendingRequests = newPendingRequests;
+            }
+            pendingRequests.add(request);
+            if (itemCount(pendingRequests) >= GOOGLE_PHOTOS_API_BATCH_SIZE) {
+                fullBatches.add(pendingRequestsByAlbumId.remove(albumId));
+            }
+            return fullBatches;
+        });
+        batchesToSend.forEach(batch -> send(albumId, batch));
+        return request.resultFuture;
+    }
+
+    private void sendIfStillPending(Optional<String> albumId, List<Request> batch) {
+        // already sent if it got full meanwhile
+        if (inLock(lock, () -> pendingRequestsByAlbumId.remove(albumId, batch))) {
+            send(albumId, batch);
+        }
+    }
+
+    private void send(Optional<String> albumId, List<Request> requests) {
+        var items = requests.stream()
+                .flatMap(request -> IntStream.range(0, request.newMediaItems.size()).mapToObj(index -> new Item(request, index)))
+                .collect(toImmutableList());
+        logger.debug("Creating {} media item(s) of {} request(s) in album {}", items.size(), requests.size(), albumId);
+        createMediaItems(albumId, items).whenComplete((results, e) -> {
+            if (e != null) {
+                requests.forEach(request -> request.completeExceptionally(e));
+                return;
+            }
+            var failedItems = storeResults(items, results);
+            if (failedItems.isEmpty() || requests.size() == 1) {
+                requests.forEach(Request::complete);
+            } else {
+                retryFailedItems(albumId, failedItems, requests);
+            }
+        });
+    }
+
+    /**
+     * Items may fail only because of their neighbours in a combined batch, e.g. same content uploaded from two directories cannot be created
+     * twice within one request, so the failed ones are sent again, for as long as each attempt creates some of them.
+     */
+    private void retryFailedItems(Optional<String> albumId, List<Item> failedItems, List<Request> requests) {
+        logger.debug("Retrying {} media item(s) that failed in a combined batch in album {}", failedItems.size(), albumId);
+        createMediaItems(albumId, failedItems).whenComplete((results, e) -> {
+            if (e != null) {
+                logger.debug("Retry of {} failed media item(s) failed, keeping their original errors", failedItems.size(), e);
+                requests.forEach(Request::complete);
+                return;
+            }
+            var stillFailedItems = storeResults(failedItems, results);
+            if (stillFailedItems.isEmpty() || stillFailedItems.size() == failedItems.size()) {
+                requests.forEach(Request::complete);
+            } else {
+                retryFailedItems(albumId, stillFailedItems, requests);
+            }
+        });
+    }
+
+    /**
+     * @return items that failed
+     */
+    private static List<Item> storeResults(List<Item> items, List<MediaItemOrError> results) {
+        var failedItems = ImmutableList.<Item>builder();
+        for (var i = 0; i < items.size(); i++) {
+            var item = items.get(i);
+            var result = results.get(i);
+            item.request.results.set(item.index, result);
+            if (result.errorStatus().isPresent()) {
+                failedItems.add(item);
+            }
+        }
+        return failedItems.build();
+    }
+
+    /**
+     * The API call runs on the executor of the first request involved.
+     */
+    private CompletableFuture<List<MediaItemOrError>> createMediaItems(Optional<String> albumId, List<Item> items) {
+        var newMediaItems = items.stream()
+                .map(item -> item.request.newMediaItems.get(item.index))
+                .collect(toImmutableList());
+        var requests = items.stream()
+                .map(item -> item.request)
+                .distinct()
+                .collect(toImmutableList());
+        var executor = requests.get(0).executor;
+        return apiOperationRetry.withBackOffAndRetry(
+                MEDIA_ITEM_CREATION,
+                "create media items",
+                executor,
+                () -> googlePhotosClient.createMediaItems(albumId, newMediaItems, executor),
+                backOffMs -> requests.forEach(request -> request.backoffEventConsumer.accept(backOffMs)));
+    }
+
+    private static int itemCount(List<Request> requests) {
+        return requests.stream().mapToInt(request -> request.newMediaItems.size()).sum();
+    }
+
+    private static final class Request {
+        private final List<NewMediaItem> newMediaItems;
+        private final Executor executor;
+        private final LongConsumer backoffEventConsumer;
+        private final List<MediaItemOrError> results;
+        private final CompletableFuture<List<MediaItemOrError>> resultFuture = new CompletableFuture<>();
+
+        Request(List<NewMediaItem> newMediaItems, Executor executor, LongConsumer backoffEventConsumer) {
+            this.newMediaItems = checkNotNull(newMediaItems);
+            this.executor = checkNotNull(executor);
+            this.backoffEventConsumer = checkNotNull(backoffEventConsumer);
+            results = Arrays.asList(new MediaItemOrError[newMediaItems.size()]);
+        }
+
+        void complete() {
+            executor.execute(() -> resultFuture.complete(ImmutableList.copyOf(results)));
+        }
+
+        void completeExceptionally(Throwable exception) {
+            executor.execute(() -> resultFuture.completeExceptionally(exception));
+        }
+    }
+
+    private static final class Item {
+        private final Request request;
+        private final int index;
+
+        Item(Request request, int index) {
+            this.request = checkNotNull(request);
+            this.index = index;
+        }
+    }
+
+    /**
+     * How long a partial batch waits for more requests to the same album before it is sent.
+     */
+    @BindingAnnotation
+    @Target({FIELD, PARAMETER, METHOD})
+    @Retention(RUNTIME)
+    @interface MaxBatchDelay {
+    }
+}
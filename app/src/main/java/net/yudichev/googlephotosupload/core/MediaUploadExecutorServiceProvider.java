@@ -0,0 +1,25 @@
+package net.yudichev.googlephotosupload.core;
+
+import javax.inject.Inject;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Runs the transfer of media bytes; the number of threads is the number of files uploaded in parallel.
+ */
+final class MediaUploadExecutorServiceProvider extends BackpressuredExecutorServiceProvider {
+    static final int DEFAULT_UPLOAD_CONCURRENCY = 1;
+
+    private final PreferencesManager preferencesManager;
+
+    @Inject
+    MediaUploadExecutorServiceProvider(PreferencesManager preferencesManager) {
+        super("upload-pool-%s");
+        this.preferencesManager = checkNotNull(preferencesManager);
+    }
+
+    @Override
+    protected int threadCount() {
+        return preferencesManager.get().uploadConcurrency().orElse(DEFAULT_UPLOAD_CONCURRENCY);
+    }
+}
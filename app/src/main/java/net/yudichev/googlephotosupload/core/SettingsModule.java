@@ -12,13 +12,23 @@ import static net.yudichev.jiotty.common.inject.BindingSpec.literally;
 
 public final class SettingsModule extends BaseLifecycleComponentModule {
     private final Path settingsRootPath;
+    private final StateWriteBehindSettings stateWriteBehindSettings;
 
     public SettingsModule() {
-        this(Paths.get(System.getProperty("user.home"), ".jiottyphotosuploader"));
+        this(StateWriteBehindSettings.builder().build());
+    }
+
+    public SettingsModule(StateWriteBehindSettings stateWriteBehindSettings) {
+        this(Paths.get(System.getProperty("user.home"), ".jiottyphotosuploader"), stateWriteBehindSettings);
     }
 
     public SettingsModule(Path settingsRootPath) {
+        this(settingsRootPath, StateWriteBehindSettings.builder().build());
+    }
+
+    public SettingsModule(Path settingsRootPath, StateWriteBehindSettings stateWriteBehindSettings) {
         this.settingsRootPath = checkNotNull(settingsRootPath);
+        this.stateWriteBehindSettings = checkNotNull(stateWriteBehindSettings);
     }
 
     public Path getSettingsRootPath() {
@@ -42,6 +52,7 @@ public final class SettingsModule extends BaseLifecycleComponentModule {
         expose(varStoreModule.getExposedKey());
 
         bind(Path.class).annotatedWith(UploadStateManagerImpl.H2DbPath.class).toInstance(settingsRootPath.resolve("data"));
+        bind(StateWriteBehindSettings.class).toInstance(stateWriteBehindSettings);
         bind(UploadStateManager.class).to(registerLifecycleComponent(UploadStateManagerImpl.class));
         expose(UploadStateManager.class);
     }
@@ -0,0 +1,48 @@
+package net.yudichev.googlephotosupload.core;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.LongSupplier;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static java.lang.Math.ceil;
+import static java.lang.Math.min;
+import static net.yudichev.jiotty.common.lang.Locks.inLock;
+
+/**
+ * Non-blocking token bucket: a caller reserves a token and is told how long to wait until it may use it. Tokens can be reserved ahead of
+ * time, so that concurrent callers are spaced out at the refill rate rather than all retrying at once.
+ */
+final class TokenBucket {
+    private final LongSupplier nanoTimeSupplier;
+    private final double capacity;
+    private final double tokensPerNano;
+    private final Lock lock = new ReentrantLock();
+    private double tokens;
+    private long lastRefillNanos;
+
+    TokenBucket(int tokensPerSecond, LongSupplier nanoTimeSupplier) {
+        checkArgument(tokensPerSecond > 0, "tokensPerSecond must be positive: %s", tokensPerSecond);
+        this.nanoTimeSupplier = checkNotNull(nanoTimeSupplier);
+        // allows a burst of one second worth of tokens
+        capacity = tokensPerSecond;
+        tokensPerNano = tokensPerSecond / (double) TimeUnit.SECONDS.toNanos(1);
+        tokens = capacity;
+        lastRefillNanos = nanoTimeSupplier.getAsLong();
+    }
+
+    /**
+     * @return milliseconds to wait before the reserved token may be used, 0 if it may be used immediately
+     */
+    long reserve() {
+        return inLock(lock, () -> {
+            var nowNanos = nanoTimeSupplier.getAsLong();
+            tokens = min(capacity, tokens + (nowNanos - lastRefillNanos) * tokensPerNano);
+            lastRefillNanos = nowNanos;
+            tokens -= 1;
+            return tokens >= 0 ? 0L : TimeUnit.NANOSECONDS.toMillis((long) ceil(-tokens / tokensPerNano));
+        });
+    }
+}
@@ -0,0 +1,18 @@
+package net.yudichev.googlephotosupload.core;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
+
+interface UploadConcurrencyLimiter {
+    void reset();
+
+    /**
+     * Starts the upload once the number of uploads in flight is below the current limit, without blocking the calling thread. The permit is held
+     * by this upload until the future it returns completes, so an upload started from within another one needs a permit of its own.
+     */
+    <T> CompletableFuture<T> withPermit(Supplier<? extends CompletableFuture<T>> upload);
+
+    void onUploaded(long bytes);
+
+    void onThrottled();
+}
@@ -0,0 +1,223 @@
+package net.yudichev.googlephotosupload.core;
+
+import net.yudichev.jiotty.common.time.CurrentDateTimeProvider;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.inject.Inject;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.Queue;
+import java.util.ResourceBundle;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+import static java.lang.Math.max;
+import static net.yudichev.googlephotosupload.core.MediaUploadExecutorServiceProvider.DEFAULT_UPLOAD_CONCURRENCY;
+import static net.yudichev.jiotty.common.lang.Locks.inLock;
+
+/**
+ * Additive increase / multiplicative decrease of the number of parallel uploads: the limit grows by one while each increase brings a throughput
+ * gain and is halved whenever Google signals that the quota is exhausted or the service is unavailable. Never exceeds the size of the upload
+ * thread pool. Uploads waiting for a permit are queued as futures, so no thread is parked while waiting.
+ */
+final class UploadConcurrencyLimiterImpl implements UploadConcurrencyLimiter {
+    private static final Logger logger = LoggerFactory.getLogger(UploadConcurrencyLimiterImpl.class);
+
+    private static final Duration MEASUREMENT_WINDOW = Duration.ofSeconds(20);
+    private static final Duration DECREASE_COOLDOWN = Duration.ofSeconds(10);
+    private static final double MIN_THROUGHPUT_GAIN = 0.05;
+    private static final int WINDOWS_BEFORE_PROBING_AGAIN = 6;
+
+    private final PreferencesManager preferencesManager;
+    private final CurrentDateTimeProvider currentDateTimeProvider;
+    private final ProgressStatusFactory progressStatusFactory;
+    private final ResourceBundle resourceBundle;
+    private final Lock lock = new ReentrantLock();
+    private final Queue<CompletableFuture<Void>> permitWaiters = new ArrayDeque<>();
+
+    private ProgressStatus progressStatus;
+    private boolean adaptive;
+    private int maxLimit = DEFAULT_UPLOAD_CONCURRENCY;
+    private int limit = DEFAULT_UPLOAD_CONCURRENCY;
+    private int inFlight;
+    private Instant windowStart;
+    private long bytesInWindow;
+    private double throughputBytesPerSecond;
+    private double throughputBeforeLastIncrease;
+    private boolean lastChangeWasIncrease;
+    private int windowsBeforeProbing;
+    private Optional<Instant> lastDecrease = Optional.empty();
+
+    @Inject
+    UploadConcurrencyLimiterImpl(PreferencesManager preferencesManager,
+                                 CurrentDateTimeProvider currentDateTimeProvider,
+                                 ProgressStatusFactory progressStatusFactory,
+                                 ResourceBundle resourceBundle) {
+        this.preferencesManager = checkNotNull(preferencesManager);
+        this.currentDateTimeProvider = checkNotNull(currentDateTimeProvider);
+        this.progressStatusFactory = checkNotNull(progressStatusFactory);
+        this.resourceBundle = checkNotNull(resourceBundle);
+    }
+
+    @Override
+    public void reset() {
+        grant(inLock(lock, () -> {
+            var preferences = preferencesManager.get();
+            maxLimit = preferences.uploadConcurrency().orElse(DEFAULT_UPLOAD_CONCURRENCY);
+            adaptive = preferences.adaptiveUploadConcurrency() && maxLimit > 1;
+            limit = adaptive ? 1 : maxLimit;
+            windowStart = currentDateTimeProvider.currentInstant();
+            bytesInWindow = 0;
+            throughputBytesPerSecond = 0;
+            throughputBeforeLastIncrease = 0;
+            lastChangeWasIncrease = false;
+            windowsBeforeProbing = 0;
+            lastDecrease = Optional.empty();
+            if (adaptive) {
+                logger.info("Adaptive upload concurrency enabled, up to {} parallel uploads", maxLimit);
+                if (progressStatus == null) {
+                    progressStatus = progressStatusFactory.create(resourceBundle.getString("uploadConcurrencyProgressTitle"), Optional.of(maxLimit));
+                } else {
+                    progressStatus.updateTotal(maxLimit);
+                }
+                refreshStatus();
+            }
+            return pollGrantableWaiters();
+        }));
+    }
+
+    @Override
+    public <T> CompletableFuture<T> withPermit(Supplier<? extends CompletableFuture<T>> upload) {
+        return acquirePermit().thenCompose(ignored -> {
+            CompletableFuture<T> uploadFuture;
+            try {
+                uploadFuture = upload.get();
+            } catch (RuntimeException e) {
+                releasePermit();
+                throw e;
+            }
+            return uploadFuture.whenComplete((result, e) -> releasePermit());
+        });
+    }
+
+    @Override
+    public void onUploaded(long bytes) {
+        grant(inLock(lock, () -> {
+            if (!adaptive) {
+                return List.<CompletableFuture<Void>>of();
+            }
+            bytesInWindow += bytes;
+            var now = currentDateTimeProvider.currentInstant();
+            var elapsed = Duration.between(windowStart, now);
+            if (elapsed.compareTo(MEASUREMENT_WINDOW) >= 0) {
+                throughputBytesPerSecond = bytesInWindow * 1000.0 / elapsed.toMillis();
+                windowStart = now;
+                bytesInWindow = 0;
+                adjustLimit();
+                refreshStatus();
+            }
+            return pollGrantableWaiters();
+        }));
+    }
+
+    @Override
+    public void onThrottled() {
+        inLock(lock, () -> {
+            if (!adaptive) {
+                return;
+            }
+            var now = currentDateTimeProvider.currentInstant();
+            // parallel uploads tend to be throttled all at once - only react to the first signal
+            if (lastDecrease.map(instant -> instant.plus(DECREASE_COOLDOWN).isAfter(now)).orElse(false)) {
+                return;
+            }
+            lastDecrease = Optional.of(now);
+            var newLimit = max(1, limit / 2);
+            if (newLimit != limit) {
+                logger.info("Throttled by Google, reducing parallel uploads from {} to {}", limit, newLimit);
+                limit = newLimit;
+            }
+            lastChangeWasIncrease = false;
+            windowsBeforeProbing = 0;
+            windowStart = now;
+            bytesInWindow = 0;
+            refreshStatus();
+        });
+    }
+
+    private void adjustLimit() {
+        if (windowsBeforeProbing > 0) {
+            windowsBeforeProbing--;
+            return;
+        }
+        if (lastChangeWasIncrease && throughputBytesPerSecond < throughputBeforeLastIncrease * (1 + MIN_THROUGHPUT_GAIN)) {
+            logger.debug("Increasing parallel uploads to {} did not improve throughput ({} -> {} B/s), holding",
+                    limit, throughputBeforeLastIncrease, throughputBytesPerSecond);
+            lastChangeWasIncrease = false;
+            windowsBeforeProbing = WINDOWS_BEFORE_PROBING_AGAIN;
+            return;
+        }
+        if (limit < maxLimit) {
+            throughputBeforeLastIncrease = throughputBytesPerSecond;
+            lastChangeWasIncrease = true;
+            limit++;
+            logger.info("Increasing parallel uploads to {}", limit);
+        }
+    }
+
+    private CompletableFuture<Void> acquirePermit() {
+        return inLock(lock, () -> {
+            if (inFlight < limit) {
+                inFlight++;
+                return CompletableFuture.<Void>completedFuture(null);
+            }
+            var waiter = new CompletableFuture<Void>();
+            permitWaiters.add(waiter);
+            return waiter;
+        });
+    }
+
+    private void releasePermit() {
+        grant(inLock(lock, () -> {
+            inFlight--;
+            return pollGrantableWaiters();
+        }));
+    }
+
+    /**
+     * Must be called under the lock; the returned waiters must be {@link #grant(List) granted} outside of it, as that starts their uploads.
+     */
+    private List<CompletableFuture<Void>> pollGrantableWaiters() {
+        List<CompletableFuture<Void>> grantedWaiters = new ArrayList<>();
+        while (inFlight < limit && !permitWaiters.isEmpty()) {
+            inFlight++;
+            grantedWaiters.add(permitWaiters.remove());
+        }
+        return grantedWaiters;
+    }
+
+    private void grant(List<CompletableFuture<Void>> waiters) {
+        waiters.forEach(waiter -> {
+            if (!waiter.complete(null)) {
+                // cancelled while waiting
+                releasePermit();
+            }
+        });
+    }
+
+    private void refreshStatus() {
+        if (progressStatus != null) {
+            progressStatus.updateSuccess(limit);
+            progressStatus.updateDescription(String.format(resourceBundle.getString("uploadConcurrencyDescription"),
+                    limit, maxLimit, throughputBytesPerSecond / (1024 * 1024)));
+        }
+    }
+}
@@ -3,7 +3,6 @@ package net.yudichev.googlephotosupload.core;
 import com.google.inject.TypeLiteral;
 import net.yudichev.jiotty.common.async.AsyncOperationFailureHandler;
 import net.yudichev.jiotty.common.async.AsyncOperationRetry;
-import net.yudichev.jiotty.common.async.AsyncOperationRetryImpl;
 import net.yudichev.jiotty.common.inject.BaseLifecycleComponentModule;
 import net.yudichev.jiotty.common.inject.ExposedKeyModule;
 
@@ -14,13 +13,19 @@ import java.util.Optional;
 @SuppressWarnings({"OverlyCoupledClass", "OverlyCoupledMethod"}) // OK for module
 public final class UploadPhotosModule extends BaseLifecycleComponentModule implements ExposedKeyModule<Uploader> {
     private final Optional<Duration> globalInitialDelayOverride;
+    private final boolean apiRateLimitingEnabled;
+    private final Duration maxMediaItemCreationBatchDelay;
 
     public UploadPhotosModule() {
         globalInitialDelayOverride = Optional.empty();
+        apiRateLimitingEnabled = true;
+        maxMediaItemCreationBatchDelay = Duration.ofMillis(500);
     }
 
     UploadPhotosModule(Duration globalOverride) {
         globalInitialDelayOverride = Optional.of(globalOverride);
+        apiRateLimitingEnabled = false;
+        maxMediaItemCreationBatchDelay = globalOverride;
     }
 
     @Override
@@ -33,10 +38,15 @@ public final class UploadPhotosModule extends BaseLifecycleComponentModule imple
 
         bind(new TypeLiteral<Optional<Duration>>() {}).annotatedWith(BackingOffRemoteApiExceptionHandlerImpl.GlobalInitialDelayOverride.class)
                 .toInstance(globalInitialDelayOverride);
-        bind(AsyncOperationFailureHandler.class).to(BackingOffRemoteApiExceptionHandlerImpl.class);
+        bind(UploadConcurrencyLimiter.class).to(UploadConcurrencyLimiterImpl.class).in(Singleton.class);
+        // shared by unclassified operations; BackingOffAsyncOperationRetry creates its own handler per API operation class
+        bind(AsyncOperationFailureHandler.class).to(BackingOffRemoteApiExceptionHandlerImpl.class).in(Singleton.class);
         bind(FatalUserCorrectableRemoteApiExceptionHandler.class).to(FatalUserCorrectableRemoteApiExceptionHandlerImpl.class);
 
-        bind(AsyncOperationRetry.class).to(AsyncOperationRetryImpl.class);
+        bindConstant().annotatedWith(BackingOffAsyncOperationRetry.ApiRateLimiting.class).to(apiRateLimitingEnabled);
+        bind(BackingOffAsyncOperationRetry.class).in(Singleton.class);
+        bind(AsyncOperationRetry.class).to(BackingOffAsyncOperationRetry.class);
+        bind(ApiOperationRetry.class).to(BackingOffAsyncOperationRetry.class);
         bind(CloudAlbumsProvider.class).to(registerLifecycleComponent(CloudAlbumsProviderImpl.class));
 
         bind(AlbumManager.class).to(registerLifecycleComponent(AlbumManagerImpl.class));
@@ -50,7 +60,9 @@ public final class UploadPhotosModule extends BaseLifecycleComponentModule imple
                 .to(AddToAlbumAfterCreatingStrategy.class)
                 .in(Singleton.class);
         bind(AddToAlbumStrategy.class).to(SelectingAddToAlbumStrategy.class);
-        bind(DriveSpaceTracker.class).to(DriveSpaceTrackerImpl.class).in(Singleton.class);
+        bind(Duration.class).annotatedWith(MediaItemCreationBatcherImpl.MaxBatchDelay.class).toInstance(maxMediaItemCreationBatchDelay);
+        bind(MediaItemCreationBatcher.class).to(MediaItemCreationBatcherImpl.class).in(Singleton.class);
+        bind(DriveSpaceTracker.class).to(registerLifecycleComponent(DriveSpaceTrackerImpl.class));
         bind(GooglePhotosUploader.class).to(registerLifecycleComponent(GooglePhotosUploaderImpl.class));
 
         bind(getExposedKey()).to(UploaderImpl.class);
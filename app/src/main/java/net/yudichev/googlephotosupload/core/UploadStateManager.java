@@ -1,15 +1,47 @@
 package net.yudichev.googlephotosupload.core;
 
 import java.nio.file.Path;
+import java.time.Instant;
+import java.util.List;
 import java.util.Map;
+import java.util.Optional;
 
 public interface UploadStateManager {
     Map<String, ItemState> loadUploadedMediaItemIdByAbsolutePath();
 
+    /**
+     * @return states of the files directly in the specified directory (not in its subdirectories), keyed by absolute path
+     */
+    Map<String, ItemState> loadItemStatesInDirectory(Path directory);
+
     void forgetState();
 
     void saveItemState(Path path, ItemState itemState);
 
+    Optional<String> findMediaIdByContentFingerprint(String contentFingerprint);
+
+    void saveContentFingerprint(String contentFingerprint, String mediaId);
+
+    Optional<DirectoryManifest> findDirectoryManifest(Path directory);
+
+    void saveDirectoryManifest(DirectoryManifest directoryManifest);
+
+    /**
+     * @return when all cloud albums were last listed and {@link #saveCloudAlbums(List, Instant) saved}, if ever
+     */
+    Optional<Instant> cloudAlbumsListingInstant();
+
+    List<CachedCloudAlbum> loadCloudAlbums();
+
+    /**
+     * Replaces all cached cloud albums with the result of a full listing.
+     */
+    void saveCloudAlbums(List<CachedCloudAlbum> albums, Instant listingInstant);
+
+    void saveCloudAlbum(CachedCloudAlbum album);
+
+    void forgetCloudAlbum(String albumId);
+
     int itemCount();
 
     void startWebServer();
@@ -1,6 +1,9 @@
 package net.yudichev.googlephotosupload.core;
 
+import com.google.common.base.Splitter;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.google.inject.BindingAnnotation;
 import net.yudichev.jiotty.common.inject.BaseLifecycleComponent;
 import net.yudichev.jiotty.common.varstore.VarStore;
@@ -12,15 +15,24 @@ import javax.inject.Inject;
 import java.lang.annotation.Retention;
 import java.lang.annotation.Target;
 import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.sql.*;
 import java.time.Instant;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 
 import static com.google.common.base.Preconditions.checkNotNull;
 import static java.lang.annotation.ElementType.*;
 import static java.lang.annotation.RetentionPolicy.RUNTIME;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
 import static net.yudichev.jiotty.common.lang.Closeable.closeIfNotNull;
 import static net.yudichev.jiotty.common.lang.Locks.inLock;
 import static net.yudichev.jiotty.common.lang.MoreThrowables.asUnchecked;
@@ -30,21 +42,52 @@ final class UploadStateManagerImpl extends BaseLifecycleComponent implements Upl
     private static final Logger logger = LoggerFactory.getLogger(UploadStateManagerImpl.class);
 
     private static final String VAR_STORE_KEY = "photosUploader";
+    /**
+     * Not allowed in file names on any supported OS.
+     */
+    private static final String SUBDIRECTORY_SEPARATOR = "/";
+    private static final int MIGRATION_CHUNK_SIZE = 1000;
     private final VarStore varStore;
     private final Path h2DbPath;
+    private final StateWriteBehindSettings writeBehindSettings;
     private final Lock lock = new ReentrantLock();
+    private final Map<String, ItemState> pendingStateByAbsolutePath = new LinkedHashMap<>();
+    private final Map<String, String> pendingMediaIdByContentFingerprint = new LinkedHashMap<>();
+    private final Map<Path, DirectoryManifest> pendingManifestByDirectory = new LinkedHashMap<>();
+    private final Map<String, Long> directoryIdByPath = new HashMap<>();
 
     private Connection connection;
     private PreparedStatement queryAllStmt;
+    private PreparedStatement queryByDirectoryStmt;
+    private PreparedStatement queryDirectoryIdStmt;
+    private PreparedStatement insertDirectoryStmt;
     private PreparedStatement removeAllStmt;
+    private PreparedStatement removeAllDirectoriesStmt;
     private PreparedStatement updateOneStateStmt;
+    private PreparedStatement queryMediaIdByFingerprintStmt;
+    private PreparedStatement updateOneFingerprintStmt;
+    private PreparedStatement removeAllFingerprintsStmt;
+    private PreparedStatement queryManifestStmt;
+    private PreparedStatement updateOneManifestStmt;
+    private PreparedStatement removeAllManifestsStmt;
+    private PreparedStatement queryCloudAlbumsListingStmt;
+    private PreparedStatement removeCloudAlbumsListingStmt;
+    private PreparedStatement insertCloudAlbumsListingStmt;
+    private PreparedStatement queryAllCloudAlbumsStmt;
+    private PreparedStatement updateOneCloudAlbumStmt;
+    private PreparedStatement removeOneCloudAlbumStmt;
+    private PreparedStatement removeAllCloudAlbumsStmt;
     private PreparedStatement queryCountStmt;
+    private ScheduledExecutorService flushExecutor;
+    private ScheduledFuture<?> scheduledFlush;
 
     @Inject
     UploadStateManagerImpl(VarStore varStore,
-                           @H2DbPath Path h2DbPath) {
+                           @H2DbPath Path h2DbPath,
+                           StateWriteBehindSettings writeBehindSettings) {
         this.varStore = checkNotNull(varStore);
         this.h2DbPath = checkNotNull(h2DbPath);
+        this.writeBehindSettings = checkNotNull(writeBehindSettings);
     }
 
     @Override
@@ -56,23 +99,109 @@ final class UploadStateManagerImpl extends BaseLifecycleComponent implements Upl
             connection = DriverManager.getConnection(url, "sa", "");
             connection.setAutoCommit(false);
             try (var statement = connection.createStatement()) {
-                statement.execute("CREATE TABLE IF NOT EXISTS MEDIA_ITEMS(" +
-                        "PATH VARCHAR(4096) PRIMARY KEY, " +
+                // each directory path is stored once; items refer to it by ID
+                statement.execute("CREATE TABLE IF NOT EXISTS DIRECTORIES(" +
+                        "ID BIGINT AUTO_INCREMENT PRIMARY KEY, " +
+                        "PATH VARCHAR(4096) NOT NULL UNIQUE" +
+                        ");");
+                statement.execute("CREATE TABLE IF NOT EXISTS DIR_MEDIA_ITEMS(" +
+                        "DIR_ID BIGINT NOT NULL, " +
+                        "FILE_NAME VARCHAR(1024) NOT NULL, " +
                         "TOKEN VARCHAR(1024), " +
                         "UPL_TIMESTAMP TIMESTAMP WITH TIME ZONE, " +
-                        "MEDIA_ID VARCHAR(256)" +
+                        "MEDIA_ID VARCHAR(256), " +
+                        "PRIMARY KEY (DIR_ID, FILE_NAME)" +
+                        ");");
+                statement.execute("CREATE TABLE IF NOT EXISTS DIRECTORY_MANIFESTS(" +
+                        "DIR_ID BIGINT PRIMARY KEY, " +
+                        "LAST_MODIFIED BIGINT NOT NULL, " +
+                        "SUBDIRECTORIES VARCHAR NOT NULL, " +
+                        "FILTER_SIGNATURE VARCHAR(64) NOT NULL" +
+                        ");");
+                statement.execute("CREATE TABLE IF NOT EXISTS CLOUD_ALBUMS(" +
+                        "ID VARCHAR(256) PRIMARY KEY, " +
+                        "TITLE VARCHAR NOT NULL, " +
+                        "WRITEABLE BOOLEAN NOT NULL, " +
+                        "ITEM_COUNT BIGINT NOT NULL, " +
+                        "URL VARCHAR NOT NULL" +
+                        ");");
+                statement.execute("CREATE TABLE IF NOT EXISTS CLOUD_ALBUMS_LISTING(LISTED_AT TIMESTAMP WITH TIME ZONE NOT NULL);");
+                statement.execute("CREATE TABLE IF NOT EXISTS CONTENT_INDEX(" +
+                        "FINGERPRINT VARCHAR(128) PRIMARY KEY, " +
+                        "MEDIA_ID VARCHAR(256) NOT NULL" +
                         ");");
             }
 
-            queryAllStmt = connection.prepareStatement("SELECT PATH, TOKEN, UPL_TIMESTAMP, MEDIA_ID FROM MEDIA_ITEMS");
-            queryCountStmt = connection.prepareStatement("SELECT COUNT(*) FROM MEDIA_ITEMS");
-            removeAllStmt = connection.prepareStatement("TRUNCATE TABLE MEDIA_ITEMS");
-            updateOneStateStmt = connection.prepareStatement("MERGE INTO MEDIA_ITEMS (PATH, TOKEN, UPL_TIMESTAMP, MEDIA_ID) VALUES (?,?,?,?)");
+            queryAllStmt = connection.prepareStatement("SELECT D.PATH, I.FILE_NAME, I.TOKEN, I.UPL_TIMESTAMP, I.MEDIA_ID " +
+                    "FROM DIR_MEDIA_ITEMS I JOIN DIRECTORIES D ON D.ID = I.DIR_ID");
+            queryByDirectoryStmt = connection.prepareStatement(
+                    "SELECT FILE_NAME, TOKEN, UPL_TIMESTAMP, MEDIA_ID FROM DIR_MEDIA_ITEMS WHERE DIR_ID = ?");
+            queryDirectoryIdStmt = connection.prepareStatement("SELECT ID FROM DIRECTORIES WHERE PATH = ?");
+            insertDirectoryStmt = connection.prepareStatement("INSERT INTO DIRECTORIES (PATH) VALUES (?)", Statement.RETURN_GENERATED_KEYS);
+            queryCountStmt = connection.prepareStatement("SELECT COUNT(*) FROM DIR_MEDIA_ITEMS");
+            removeAllStmt = connection.prepareStatement("TRUNCATE TABLE DIR_MEDIA_ITEMS");
+            queryMediaIdByFingerprintStmt = connection.prepareStatement("SELECT MEDIA_ID FROM CONTENT_INDEX WHERE FINGERPRINT = ?");
+            updateOneFingerprintStmt = connection.prepareStatement("MERGE INTO CONTENT_INDEX (FINGERPRINT, MEDIA_ID) VALUES (?,?)");
+            removeAllFingerprintsStmt = connection.prepareStatement("TRUNCATE TABLE CONTENT_INDEX");
+            queryManifestStmt = connection.prepareStatement(
+                    "SELECT LAST_MODIFIED, SUBDIRECTORIES, FILTER_SIGNATURE FROM DIRECTORY_MANIFESTS WHERE DIR_ID = ?");
+            updateOneManifestStmt = connection.prepareStatement("MERGE INTO DIRECTORY_MANIFESTS " +
+                    "(DIR_ID, LAST_MODIFIED, SUBDIRECTORIES, FILTER_SIGNATURE) VALUES (?,?,?,?)");
+            removeAllManifestsStmt = connection.prepareStatement("TRUNCATE TABLE DIRECTORY_MANIFESTS");
+            queryCloudAlbumsListingStmt = connection.prepareStatement("SELECT LISTED_AT FROM CLOUD_ALBUMS_LISTING");
+            removeCloudAlbumsListingStmt = connection.prepareStatement("DELETE FROM CLOUD_ALBUMS_LISTING");
+            insertCloudAlbumsListingStmt = connection.prepareStatement("INSERT INTO CLOUD_ALBUMS_LISTING (LISTED_AT) VALUES (?)");
+            queryAllCloudAlbumsStmt = connection.prepareStatement("SELECT ID, TITLE, WRITEABLE, ITEM_COUNT, URL FROM CLOUD_ALBUMS");
+            updateOneCloudAlbumStmt = connection.prepareStatement(
+                    "MERGE INTO CLOUD_ALBUMS (ID, TITLE, WRITEABLE, ITEM_COUNT, URL) VALUES (?,?,?,?,?)");
+            removeOneCloudAlbumStmt = connection.prepareStatement("DELETE FROM CLOUD_ALBUMS WHERE ID = ?");
+            // not TRUNCATE, which would commit and so could not be rolled back
+            removeAllCloudAlbumsStmt = connection.prepareStatement("DELETE FROM CLOUD_ALBUMS");
+            removeAllDirectoriesStmt = connection.prepareStatement("DELETE FROM DIRECTORIES");
+            updateOneStateStmt = connection.prepareStatement(
+                    "MERGE INTO DIR_MEDIA_ITEMS (DIR_ID, FILE_NAME, TOKEN, UPL_TIMESTAMP, MEDIA_ID) VALUES (?,?,?,?,?)");
 
+            migrateFromPathKeyedTable();
             migrateFromOldStorage();
+
+            flushExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+                    .setNameFormat("state-writer")
+                    .setDaemon(true)
+                    .build());
         }));
     }
 
+    /**
+     * Not atomic: H2 commits implicitly on {@code DROP TABLE}, so rows are copied and committed in chunks first. Copying is a {@code MERGE},
+     * so if interrupted, the next start simply copies all rows again.
+     */
+    private void migrateFromPathKeyedTable() throws SQLException {
+        try (var tables = connection.getMetaData().getTables(null, null, "MEDIA_ITEMS", null)) {
+            if (!tables.next()) {
+                return;
+            }
+        }
+        logger.info("Migrating upload state to directory-keyed storage...");
+        var count = 0;
+        try (var statement = connection.createStatement();
+             var resultSet = statement.executeQuery("SELECT PATH, TOKEN, UPL_TIMESTAMP, MEDIA_ID FROM MEDIA_ITEMS")) {
+            while (resultSet.next()) {
+                addRowUpdateBatch(resultSet.getString(1), readItemState(resultSet, 2));
+                if (++count % MIGRATION_CHUNK_SIZE == 0) {
+                    updateOneStateStmt.executeBatch();
+                    connection.commit();
+                    logger.info("Migrated {} item(s)...", count);
+                }
+            }
+        }
+        updateOneStateStmt.executeBatch();
+        connection.commit();
+        try (var statement = connection.createStatement()) {
+            statement.execute("DROP TABLE MEDIA_ITEMS");
+        }
+        logger.info("Migrated {} item(s) successfully", count);
+    }
+
     private void migrateFromOldStorage() throws SQLException {
         var uploadState = varStore.readValue(UploadState.class, VAR_STORE_KEY).orElseGet(() -> UploadState.builder().build());
         if (!uploadState.uploadedMediaItemIdByAbsolutePath().isEmpty()) {
@@ -89,52 +218,231 @@ final class UploadStateManagerImpl extends BaseLifecycleComponent implements Upl
 
     @Override
     protected void doStop() {
-        closeIfNotNull(connection);
+        inLock(lock, () -> {
+            if (flushExecutor != null) {
+                flushExecutor.shutdownNow();
+                flushExecutor = null;
+                scheduledFlush = null;
+            }
+            if (connection != null) {
+                try {
+                    flush();
+                } catch (RuntimeException e) {
+                    logger.error("Failed to save {} pending item state(s)", pendingStateByAbsolutePath.size(), e);
+                }
+            }
+            closeIfNotNull(connection);
+        });
     }
 
     @Override
     public Map<String, ItemState> loadUploadedMediaItemIdByAbsolutePath() {
         return inLock(lock, () -> getAsUnchecked(() -> {
+            flush();
             try (var resultSet = queryAllStmt.executeQuery()) {
                 var resultBuilder = ImmutableMap.<String, ItemState>builder();
                 while (resultSet.next()) {
-                    var path = resultSet.getString(1);
-                    var itemStateBuilder = ItemState.builder();
-                    var token = resultSet.getString(2);
-                    if (token != null) {
-                        itemStateBuilder
-                                .setUploadState(UploadMediaItemState.of(token, resultSet.getObject(3, Instant.class)));
-                    }
-                    var mediaId = resultSet.getString(4);
-                    if (mediaId != null) {
-                        itemStateBuilder.setMediaId(mediaId);
-                    }
-                    resultBuilder.put(path, itemStateBuilder.build());
+                    resultBuilder.put(Paths.get(resultSet.getString(1)).resolve(resultSet.getString(2)).toString(), readItemState(resultSet, 3));
                 }
                 return resultBuilder.build();
             }
         }));
     }
 
+    @Override
+    public Map<String, ItemState> loadItemStatesInDirectory(Path directory) {
+        var absoluteDirectory = directory.toAbsolutePath();
+        return inLock(lock, () -> getAsUnchecked(() -> {
+            // pending states of other directories keep waiting for their batch
+            if (hasPendingStateIn(absoluteDirectory)) {
+                flush();
+            }
+            var resultBuilder = ImmutableMap.<String, ItemState>builder();
+            var directoryId = findDirectoryId(absoluteDirectory.toString());
+            if (directoryId.isPresent()) {
+                queryByDirectoryStmt.setLong(1, directoryId.get());
+                try (var resultSet = queryByDirectoryStmt.executeQuery()) {
+                    while (resultSet.next()) {
+                        resultBuilder.put(absoluteDirectory.resolve(resultSet.getString(1)).toString(), readItemState(resultSet, 2));
+                    }
+                }
+            }
+            return resultBuilder.build();
+        }));
+    }
+
     @Override
     public void forgetState() {
-        inLock(lock, () -> asUnchecked(() -> removeAllStmt.execute()));
+        inLock(lock, () -> asUnchecked(() -> {
+            pendingStateByAbsolutePath.clear();
+            pendingMediaIdByContentFingerprint.clear();
+            pendingManifestByDirectory.clear();
+            cancelScheduledFlush();
+            removeAllStmt.execute();
+            removeAllDirectoriesStmt.execute();
+            removeAllFingerprintsStmt.execute();
+            removeAllManifestsStmt.execute();
+            connection.commit();
+            directoryIdByPath.clear();
+        }));
         logger.trace("Forgot state");
     }
 
     @Override
     public void saveItemState(Path path, ItemState itemState) {
+        inLock(lock, () -> {
+            // later state of the same item supersedes the earlier one, so only the latest is written
+            pendingStateByAbsolutePath.put(path.toAbsolutePath().toString(), itemState);
+            onPendingChangeAdded();
+        });
+        logger.trace("Queued state: {}->{}", path, itemState);
+    }
+
+    @Override
+    public Optional<String> findMediaIdByContentFingerprint(String contentFingerprint) {
+        return inLock(lock, () -> getAsUnchecked(() -> {
+            var pendingMediaId = pendingMediaIdByContentFingerprint.get(contentFingerprint);
+            if (pendingMediaId != null) {
+                return Optional.of(pendingMediaId);
+            }
+            queryMediaIdByFingerprintStmt.setString(1, contentFingerprint);
+            try (var resultSet = queryMediaIdByFingerprintStmt.executeQuery()) {
+                return resultSet.next() ? Optional.of(resultSet.getString(1)) : Optional.<String>empty();
+            }
+        }));
+    }
+
+    @Override
+    public void saveContentFingerprint(String contentFingerprint, String mediaId) {
+        inLock(lock, () -> {
+            pendingMediaIdByContentFingerprint.put(contentFingerprint, mediaId);
+            onPendingChangeAdded();
+        });
+        logger.trace("Queued content fingerprint: {}->{}", contentFingerprint, mediaId);
+    }
+
+    @Override
+    public Optional<DirectoryManifest> findDirectoryManifest(Path directory) {
+        var absoluteDirectory = directory.toAbsolutePath();
+        return inLock(lock, () -> getAsUnchecked(() -> {
+            var pendingManifest = pendingManifestByDirectory.get(absoluteDirectory);
+            if (pendingManifest != null) {
+                return Optional.of(pendingManifest);
+            }
+            var directoryId = findDirectoryId(absoluteDirectory.toString());
+            if (directoryId.isEmpty()) {
+                return Optional.<DirectoryManifest>empty();
+            }
+            queryManifestStmt.setLong(1, directoryId.get());
+            try (var resultSet = queryManifestStmt.executeQuery()) {
+                if (!resultSet.next()) {
+                    return Optional.<DirectoryManifest>empty();
+                }
+                var subdirectories = resultSet.getString(2);
+                return Optional.of(DirectoryManifest.builder()
+                        .setPath(absoluteDirectory)
+                        .setLastModifiedMillis(resultSet.getLong(1))
+                        .setSubdirectoryNames(subdirectories.isEmpty() ?
+                                ImmutableList.of() :
+                                Splitter.on(SUBDIRECTORY_SEPARATOR).splitToList(subdirectories))
+                        .setFilterSignature(resultSet.getString(3))
+                        .build());
+            }
+        }));
+    }
+
+    @Override
+    public void saveDirectoryManifest(DirectoryManifest directoryManifest) {
+        inLock(lock, () -> {
+            pendingManifestByDirectory.put(directoryManifest.path().toAbsolutePath(), directoryManifest);
+            onPendingChangeAdded();
+        });
+        logger.trace("Queued directory manifest: {}", directoryManifest);
+    }
+
+    @Override
+    public Optional<Instant> cloudAlbumsListingInstant() {
+        return inLock(lock, () -> getAsUnchecked(() -> {
+            try (var resultSet = queryCloudAlbumsListingStmt.executeQuery()) {
+                return resultSet.next() ? Optional.of(resultSet.getObject(1, Instant.class)) : Optional.<Instant>empty();
+            }
+        }));
+    }
+
+    @Override
+    public List<CachedCloudAlbum> loadCloudAlbums() {
+        return inLock(lock, () -> getAsUnchecked(() -> {
+            var albums = ImmutableList.<CachedCloudAlbum>builder();
+            try (var resultSet = queryAllCloudAlbumsStmt.executeQuery()) {
+                while (resultSet.next()) {
+                    albums.add(CachedCloudAlbum.builder()
+                            .setId(resultSet.getString(1))
+                            .setTitle(resultSet.getString(2))
+                            .setWriteable(resultSet.getBoolean(3))
+                            .setMediaItemCount(resultSet.getLong(4))
+                            .setAlbumUrl(resultSet.getString(5))
+                            .build());
+                }
+            }
+            return albums.build();
+        }));
+    }
+
+    @Override
+    public void saveCloudAlbums(List<CachedCloudAlbum> albums, Instant listingInstant) {
+        inLock(lock, () -> asUnchecked(() -> {
+            try {
+                removeAllCloudAlbumsStmt.execute();
+                for (var album : albums) {
+                    setCloudAlbumParameters(album);
+                    updateOneCloudAlbumStmt.addBatch();
+                }
+                updateOneCloudAlbumStmt.executeBatch();
+                removeCloudAlbumsListingStmt.execute();
+                insertCloudAlbumsListingStmt.setObject(1, listingInstant);
+                insertCloudAlbumsListingStmt.execute();
+                connection.commit();
+            } catch (SQLException | RuntimeException e) {
+                updateOneCloudAlbumStmt.clearBatch();
+                connection.rollback();
+                throw e;
+            }
+        }));
+        logger.debug("Saved {} cloud album(s) listed at {}", albums.size(), listingInstant);
+    }
+
+    @Override
+    public void saveCloudAlbum(CachedCloudAlbum album) {
         inLock(lock, () -> asUnchecked(() -> {
-            addRowUpdateBatch(path.toAbsolutePath().toString(), itemState);
-            updateOneStateStmt.execute();
+            setCloudAlbumParameters(album);
+            updateOneCloudAlbumStmt.execute();
             connection.commit();
         }));
-        logger.trace("Saved state: {}->{}", path, itemState);
+        logger.trace("Saved cloud album {}", album);
+    }
+
+    @Override
+    public void forgetCloudAlbum(String albumId) {
+        inLock(lock, () -> asUnchecked(() -> {
+            removeOneCloudAlbumStmt.setString(1, albumId);
+            removeOneCloudAlbumStmt.execute();
+            connection.commit();
+        }));
+        logger.trace("Forgot cloud album {}", albumId);
+    }
+
+    private void setCloudAlbumParameters(CachedCloudAlbum album) throws SQLException {
+        updateOneCloudAlbumStmt.setString(1, album.id());
+        updateOneCloudAlbumStmt.setString(2, album.title());
+        updateOneCloudAlbumStmt.setBoolean(3, album.writeable());
+        updateOneCloudAlbumStmt.setLong(4, album.mediaItemCount());
+        updateOneCloudAlbumStmt.setString(5, album.albumUrl());
     }
 
     @Override
     public int itemCount() {
         return inLock(lock, () -> getAsUnchecked(() -> {
+            flush();
             try (var resultSet = queryCountStmt.executeQuery()) {
                 resultSet.next();
                 return resultSet.getInt(1);
@@ -149,21 +457,151 @@ final class UploadStateManagerImpl extends BaseLifecycleComponent implements Upl
         logger.info("DB Console Disconnected");
     }
 
+    private static ItemState readItemState(ResultSet resultSet, int tokenColumnIndex) throws SQLException {
+        var itemStateBuilder = ItemState.builder();
+        var token = resultSet.getString(tokenColumnIndex);
+        if (token != null) {
+            itemStateBuilder
+                    .setUploadState(UploadMediaItemState.of(token, resultSet.getObject(tokenColumnIndex + 1, Instant.class)));
+        }
+        var mediaId = resultSet.getString(tokenColumnIndex + 2);
+        if (mediaId != null) {
+            itemStateBuilder.setMediaId(mediaId);
+        }
+        return itemStateBuilder.build();
+    }
+
+    private Optional<Long> findDirectoryId(String directoryPath) throws SQLException {
+        var directoryId = directoryIdByPath.get(directoryPath);
+        if (directoryId == null) {
+            queryDirectoryIdStmt.setString(1, directoryPath);
+            try (var resultSet = queryDirectoryIdStmt.executeQuery()) {
+                if (resultSet.next()) {
+                    directoryId = resultSet.getLong(1);
+                    directoryIdByPath.put(directoryPath, directoryId);
+                }
+            }
+        }
+        return Optional.ofNullable(directoryId);
+    }
+
+    private long getOrCreateDirectoryId(String directoryPath) throws SQLException {
+        var existingId = findDirectoryId(directoryPath);
+        if (existingId.isPresent()) {
+            return existingId.get();
+        }
+        insertDirectoryStmt.setString(1, directoryPath);
+        insertDirectoryStmt.executeUpdate();
+        try (var generatedKeys = insertDirectoryStmt.getGeneratedKeys()) {
+            generatedKeys.next();
+            var directoryId = generatedKeys.getLong(1);
+            directoryIdByPath.put(directoryPath, directoryId);
+            return directoryId;
+        }
+    }
+
+    private boolean hasPendingStateIn(Path absoluteDirectory) {
+        return pendingStateByAbsolutePath.keySet().stream()
+                .anyMatch(absolutePath -> absoluteDirectory.equals(Paths.get(absolutePath).getParent()));
+    }
+
+    private void scheduledFlush() {
+        inLock(lock, () -> {
+            scheduledFlush = null;
+            try {
+                flush();
+            } catch (RuntimeException e) {
+                // pending states are retained and will be retried with the next batch
+                logger.error("Failed to save {} item state(s)", pendingStateByAbsolutePath.size(), e);
+            }
+        });
+    }
+
+    private void onPendingChangeAdded() {
+        if (pendingStateByAbsolutePath.size() + pendingMediaIdByContentFingerprint.size() + pendingManifestByDirectory.size() >=
+                writeBehindSettings.maxBatchSize()) {
+            flush();
+        } else if (scheduledFlush == null && flushExecutor != null) {
+            scheduledFlush = flushExecutor.schedule(this::scheduledFlush, writeBehindSettings.maxDelay().toMillis(), MILLISECONDS);
+        }
+    }
+
+    private void flush() {
+        cancelScheduledFlush();
+        if (pendingStateByAbsolutePath.isEmpty() && pendingMediaIdByContentFingerprint.isEmpty() && pendingManifestByDirectory.isEmpty()) {
+            return;
+        }
+        asUnchecked(() -> {
+            try {
+                for (var entry : pendingStateByAbsolutePath.entrySet()) {
+                    addRowUpdateBatch(entry.getKey(), entry.getValue());
+                }
+                updateOneStateStmt.executeBatch();
+                for (var entry : pendingMediaIdByContentFingerprint.entrySet()) {
+                    updateOneFingerprintStmt.setString(1, entry.getKey());
+                    updateOneFingerprintStmt.setString(2, entry.getValue());
+                    updateOneFingerprintStmt.addBatch();
+                }
+                updateOneFingerprintStmt.executeBatch();
+                // written after item states, so that a manifest is never committed without the states of its files
+                for (var manifest : pendingManifestByDirectory.values()) {
+                    updateOneManifestStmt.setLong(1, getOrCreateDirectoryId(manifest.path().toAbsolutePath().toString()));
+                    updateOneManifestStmt.setLong(2, manifest.lastModifiedMillis());
+                    updateOneManifestStmt.setString(3, String.join(SUBDIRECTORY_SEPARATOR, manifest.subdirectoryNames()));
+                    updateOneManifestStmt.setString(4, manifest.filterSignature());
+                    updateOneManifestStmt.addBatch();
+                }
+                updateOneManifestStmt.executeBatch();
+                connection.commit();
+            } catch (SQLException | RuntimeException e) {
+                updateOneStateStmt.clearBatch();
+                updateOneFingerprintStmt.clearBatch();
+                updateOneManifestStmt.clearBatch();
+                connection.rollback();
+                // may contain IDs of directories whose insertion has just been rolled back
+                directoryIdByPath.clear();
+                throw e;
+            }
+        });
+        logger.debug("Saved {} item state(s), {} content fingerprint(s) and {} directory manifest(s)",
+                pendingStateByAbsolutePath.size(), pendingMediaIdByContentFingerprint.size(), pendingManifestByDirectory.size());
+        pendingStateByAbsolutePath.clear();
+        pendingMediaIdByContentFingerprint.clear();
+        pendingManifestByDirectory.clear();
+    }
+
+    private void cancelScheduledFlush() {
+        if (scheduledFlush != null) {
+            scheduledFlush.cancel(false);
+            scheduledFlush = null;
+        }
+    }
+
     private void addRowUpdateBatch(String absolutePath, ItemState itemState) throws SQLException {
+        var path = Paths.get(absolutePath);
+        var fileName = path.getFileName();
+        if (fileName == null) {
+            logger.warn("Ignoring state of a path without a file name: '{}'", absolutePath);
+            return;
+        }
+        // a path without a parent is resolved against the empty path when read back
+        var parent = path.getParent();
+        var directoryId = getOrCreateDirectoryId(parent == null ? "" : parent.toString());
         updateOneStateStmt.clearParameters();
-        updateOneStateStmt.setString(1, absolutePath);
+        updateOneStateStmt.setLong(1, directoryId);
+        updateOneStateStmt.setString(2, fileName.toString());
         if (itemState.uploadState().isPresent()) {
             var uploadMediaItemState = itemState.uploadState().get();
-            updateOneStateStmt.setString(2, uploadMediaItemState.token());
-            updateOneStateStmt.setObject(3, uploadMediaItemState.uploadInstant());
+            updateOneStateStmt.setString(3, uploadMediaItemState.token());
+            updateOneStateStmt.setObject(4, uploadMediaItemState.uploadInstant());
         } else {
-            updateOneStateStmt.setNull(2, Types.NULL);
             updateOneStateStmt.setNull(3, Types.NULL);
+            updateOneStateStmt.setNull(4, Types.NULL);
         }
         if (itemState.mediaId().isPresent()) {
-            updateOneStateStmt.setString(4, itemState.mediaId().get());
+            updateOneStateStmt.setString(5, itemState.mediaId().get());
         } else {
-            updateOneStateStmt.setNull(4, Types.NULL);
+            updateOneStateStmt.setNull(5, Types.NULL);
         }
         updateOneStateStmt.addBatch();
     }
@@ -0,0 +1,122 @@
+package net.yudichev.googlephotosupload.core;
+
+import net.yudichev.jiotty.common.lang.CompletableFutures;
+import net.yudichev.jiotty.common.time.CurrentDateTimeProvider;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.ResourceBundle;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Function;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.collect.ImmutableList.toImmutableList;
+import static net.yudichev.googlephotosupload.core.GooglePhotosUploaderImpl.GOOGLE_PHOTOS_API_BATCH_SIZE;
+import static net.yudichev.jiotty.common.lang.CompletableFutures.toFutureOfList;
+
+/**
+ * Hands the upload results of a directory over for media item creation.
+ */
+final class UploadTokenLifetimeHandOver {
+    /**
+     * Google keeps upload tokens for a day; leave a margin for the clock skew.
+     */
+    static final Duration UPLOAD_TOKEN_LIFETIME = Duration.ofHours(23);
+    /**
+     * Media items for tokens this old are created even if other files of the directory are still uploading, so that the tokens do not expire.
+     */
+    static final Duration UPLOAD_TOKEN_CREATE_BY_AGE = UPLOAD_TOKEN_LIFETIME.minusHours(3);
+    static final Duration UPLOAD_TOKEN_CHECK_INTERVAL = Duration.ofMinutes(10);
+
+    private static final Logger logger = LoggerFactory.getLogger(UploadTokenLifetimeHandOver.class);
+
+    private final CurrentDateTimeProvider currentDateTimeProvider;
+    private final Function<Duration, CompletableFuture<?>> timer;
+    private final ResourceBundle resourceBundle;
+
+    /**
+     * @param timer returns a future that completes once the given delay elapses
+     */
+    UploadTokenLifetimeHandOver(CurrentDateTimeProvider currentDateTimeProvider,
+                                Function<Duration, CompletableFuture<?>> timer,
+                                ResourceBundle resourceBundle) {
+        this.currentDateTimeProvider = checkNotNull(currentDateTimeProvider);
+        this.timer = checkNotNull(timer);
+        this.resourceBundle = checkNotNull(resourceBundle);
+    }
+
+    /**
+     * Normally hands all the results over at once, when every file is uploaded. If {@code inLeadingBatches}, hands results over in file name
+     * order, one full API batch at a time as soon as a batch worth of leading files is uploaded, so that media items of small files are created
+     * while large ones are still streaming; the rest are handed over once every file is uploaded. This is only for consumers that keep the
+     * order across hand-overs: one that sorts each hand-over on its own would lose the order of the directory.
+     * <p>
+     * If, while some files are still uploading, upload tokens of others get close to expiry (a very large directory on a slow connection, or
+     * tokens resumed from a previous run), hands over all the results ready so far, so that their media items are created in time, even if
+     * that splits the directory, and shows how many tokens were at risk in the description of the progress status.
+     *
+     * @return a future that completes once all the results are handed over and consumed
+     */
+    CompletableFuture<Void> handOver(List<CompletableFuture<PathState>> pathStateFutures,
+                                     boolean inLeadingBatches,
+                                     ProgressStatus progressStatus,
+                                     Function<CompletableFuture<List<PathState>>, CompletableFuture<Void>> resultsConsumer) {
+        var allResultsFuture = pathStateFutures.stream().collect(toFutureOfList());
+        var leadingBatchFuture = inLeadingBatches && pathStateFutures.size() > GOOGLE_PHOTOS_API_BATCH_SIZE ?
+                CompletableFuture.allOf(pathStateFutures.subList(0, GOOGLE_PHOTOS_API_BATCH_SIZE).toArray(CompletableFuture[]::new)) :
+                new CompletableFuture<Void>();
+        return CompletableFuture.anyOf(allResultsFuture, leadingBatchFuture, whenAnyUploadTokenDue(pathStateFutures, allResultsFuture))
+                .thenCompose(ignored -> {
+                    if (allResultsFuture.isDone()) {
+                        return resultsConsumer.apply(allResultsFuture);
+                    }
+                    if (pathStateFutures.stream().noneMatch(this::uploadTokenDue)) {
+                        logger.debug("{} leading file(s) uploaded while {} other(s) are still uploading, creating their media items now",
+                                GOOGLE_PHOTOS_API_BATCH_SIZE, pathStateFutures.size() - GOOGLE_PHOTOS_API_BATCH_SIZE);
+                        return resultsConsumer.apply(pathStateFutures.subList(0, GOOGLE_PHOTOS_API_BATCH_SIZE).stream().collect(toFutureOfList()))
+                                .thenCompose(ignored2 -> handOver(pathStateFutures.subList(GOOGLE_PHOTOS_API_BATCH_SIZE, pathStateFutures.size()),
+                                        true,
+                                        progressStatus,
+                                        resultsConsumer));
+                    }
+                    var readyFutures = pathStateFutures.stream().filter(CompletableFuture::isDone).collect(toImmutableList());
+                    var pendingFutures = pathStateFutures.stream().filter(future -> !future.isDone()).collect(toImmutableList());
+                    var dueTokenCount = readyFutures.stream().filter(this::uploadTokenDue).count();
+                    logger.warn("{} upload token(s) are due to expire while {} other file(s) in the directory are still uploading, " +
+                                    "creating media items for {} uploaded file(s) now",
+                            dueTokenCount, pendingFutures.size(), readyFutures.size());
+                    progressStatus.updateDescription(String.format(resourceBundle.getString("uploaderUploadTokensDue"),
+                            dueTokenCount, readyFutures.size()));
+                    return resultsConsumer.apply(readyFutures.stream().collect(toFutureOfList()))
+                            .thenCompose(ignored2 -> pendingFutures.isEmpty() ?
+                                    CompletableFutures.completedFuture() :
+                                    handOver(pendingFutures, inLeadingBatches, progressStatus, resultsConsumer));
+                });
+    }
+
+    private CompletableFuture<Void> whenAnyUploadTokenDue(List<CompletableFuture<PathState>> pathStateFutures, CompletableFuture<?> allResultsFuture) {
+        return timer.apply(UPLOAD_TOKEN_CHECK_INTERVAL)
+                .thenCompose(ignored -> {
+                    if (allResultsFuture.isDone()) {
+                        // never completes, as all results are handed over anyway
+                        return new CompletableFuture<>();
+                    }
+                    return pathStateFutures.stream().anyMatch(this::uploadTokenDue) ?
+                            CompletableFutures.completedFuture() :
+                            whenAnyUploadTokenDue(pathStateFutures, allResultsFuture);
+                });
+    }
+
+    private boolean uploadTokenDue(CompletableFuture<PathState> pathStateFuture) {
+        var createBy = currentDateTimeProvider.currentInstant().minus(UPLOAD_TOKEN_CREATE_BY_AGE);
+        return pathStateFuture.isDone() &&
+                !pathStateFuture.isCompletedExceptionally() &&
+                pathStateFuture.join().state().toSuccess()
+                        .filter(itemState -> itemState.mediaId().isEmpty())
+                        .flatMap(ItemState::uploadState)
+                        .filter(uploadMediaItemState -> !uploadMediaItemState.uploadInstant().isAfter(createBy))
+                        .isPresent();
+    }
+}
@@ -1,12 +1,19 @@
 package net.yudichev.googlephotosupload.core;
 
 import java.nio.file.Path;
+import java.util.Collection;
 import java.util.List;
 import java.util.concurrent.CompletableFuture;
 
 public interface Uploader {
     CompletableFuture<Void> upload(List<Path> rootDirs, boolean resume);
 
+    /**
+     * Uploads the specified files under the root into the albums a full upload would put them in, without scanning the root; files that were
+     * already uploaded are skipped.
+     */
+    CompletableFuture<Void> uploadFiles(Path rootDir, Collection<Path> files);
+
     int numberOfUploadedItems();
 
     void forgetUploadState();
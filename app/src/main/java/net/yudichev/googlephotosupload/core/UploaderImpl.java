@@ -1,16 +1,26 @@
 package net.yudichev.googlephotosupload.core;
 
+import net.yudichev.googlephotosupload.core.AlbumManager.AlbumReconciler;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.inject.Inject;
 import java.nio.file.Path;
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
+import java.util.Queue;
 import java.util.ResourceBundle;
+import java.util.Set;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
 import static com.google.common.base.Preconditions.checkNotNull;
+import static java.util.concurrent.CompletableFuture.completedFuture;
 import static net.yudichev.jiotty.common.lang.CompletableFutures.toFutureOfList;
 
 final class UploaderImpl implements Uploader {
@@ -18,29 +28,29 @@ final class UploaderImpl implements Uploader {
     private final GooglePhotosUploader googlePhotosUploader;
     private final DirectoryStructureSupplier directoryStructureSupplier;
     private final AlbumManager albumManager;
-    private final CloudAlbumsProvider cloudAlbumsProvider;
     private final ProgressStatusFactory progressStatusFactory;
     private final UploadStateManager uploadStateManager;
     private final ResourceBundle resourceBundle;
     private final DriveSpaceTracker driveSpaceTracker;
+    private final UploadConcurrencyLimiter uploadConcurrencyLimiter;
 
     @Inject
     UploaderImpl(GooglePhotosUploader googlePhotosUploader,
                  DirectoryStructureSupplier directoryStructureSupplier,
                  AlbumManager albumManager,
-                 CloudAlbumsProvider cloudAlbumsProvider,
                  ProgressStatusFactory progressStatusFactory,
                  UploadStateManager uploadStateManager,
                  ResourceBundle resourceBundle,
-                 DriveSpaceTracker driveSpaceTracker) {
+                 DriveSpaceTracker driveSpaceTracker,
+                 UploadConcurrencyLimiter uploadConcurrencyLimiter) {
         this.googlePhotosUploader = checkNotNull(googlePhotosUploader);
         this.directoryStructureSupplier = checkNotNull(directoryStructureSupplier);
         this.albumManager = checkNotNull(albumManager);
-        this.cloudAlbumsProvider = checkNotNull(cloudAlbumsProvider);
         this.progressStatusFactory = checkNotNull(progressStatusFactory);
         this.uploadStateManager = checkNotNull(uploadStateManager);
         this.resourceBundle = checkNotNull(resourceBundle);
         this.driveSpaceTracker = checkNotNull(driveSpaceTracker);
+        this.uploadConcurrencyLimiter = checkNotNull(uploadConcurrencyLimiter);
     }
 
     @Override
@@ -48,53 +58,115 @@ final class UploaderImpl implements Uploader {
         if (!resume) {
             googlePhotosUploader.doNotResume();
         }
+        uploadConcurrencyLimiter.reset();
         return driveSpaceTracker.reset()
                 .thenCompose(ignored -> {
-                    var albumDirectoriesFuture = directoryStructureSupplier.listAlbumDirectories(rootDirs);
-                    var cloudAlbumsByTitleFuture = cloudAlbumsProvider.listCloudAlbums();
-                    albumDirectoriesFuture.exceptionally(throwable -> {
-                        cloudAlbumsByTitleFuture.cancel(true);
-                        return null;
+                    var albumReconciler = albumManager.newReconciler();
+                    var fileProgressStatus = progressStatusFactory.create(resourceBundle.getString("uploaderFileProgressTitle"), Optional.of(0));
+                    var directoryProgressStatus =
+                            progressStatusFactory.create(resourceBundle.getString("uploaderAlbumProgressTitle"), Optional.of(0));
+                    var fileCount = new AtomicInteger();
+                    var directoryCount = new AtomicInteger();
+                    Queue<CompletableFuture<Void>> directoryUploadFutures = new ConcurrentLinkedQueue<>();
+                    var albumDirectoriesFutureRef = new AtomicReference<CompletableFuture<Void>>();
+                    var scanAborted = new AtomicBoolean();
+                    // each directory is uploaded as soon as it's scanned, while the scan continues
+                    var albumDirectoriesFuture = directoryStructureSupplier.listAlbumDirectories(rootDirs, albumDirectory -> {
+                        if (scanAborted.get()) {
+                            logger.debug("Upload aborted, ignoring directory {}", albumDirectory.path());
+                            return;
+                        }
+                        fileProgressStatus.updateTotal(fileCount.addAndGet(albumDirectory.files().size()));
+                        directoryProgressStatus.updateTotal(directoryCount.incrementAndGet());
+                        var directoryUploadFuture = uploadAlbumDirectory(albumReconciler, albumDirectory, directoryProgressStatus, fileProgressStatus);
+                        directoryUploadFuture.exceptionally(throwable -> {
+                            // fatal, e.g. failed to list cloud albums - no point scanning further
+                            if (scanAborted.compareAndSet(false, true)) {
+                                var scanFuture = albumDirectoriesFutureRef.get();
+                                if (scanFuture != null) {
+                                    scanFuture.cancel(true);
+                                }
+                            }
+                            return null;
+                        });
+                        directoryUploadFutures.add(directoryUploadFuture);
                     });
-                    cloudAlbumsByTitleFuture.exceptionally(throwable -> {
+                    albumDirectoriesFutureRef.set(albumDirectoriesFuture);
+                    if (scanAborted.get()) {
+                        // aborted before the reference was set
                         albumDirectoriesFuture.cancel(true);
-                        return null;
-                    });
+                    }
                     return albumDirectoriesFuture
-                            .thenCompose(albumDirectories -> cloudAlbumsByTitleFuture
-                                    .thenCompose(cloudAlbumsByTitle -> albumManager.listAlbumsByTitle(albumDirectories, cloudAlbumsByTitle)
-                                            .thenCompose(albumsByTitle -> {
-                                                var fileProgressStatus = progressStatusFactory.create(
-                                                        resourceBundle.getString("uploaderFileProgressTitle"),
-                                                        Optional.of(albumDirectories.stream().mapToInt(albumDirectory -> albumDirectory.files().size()).sum()));
-                                                var directoryProgressStatus =
-                                                        progressStatusFactory.create(
-                                                                resourceBundle.getString("uploaderAlbumProgressTitle"),
-                                                                Optional.of(albumDirectories.size()));
-                                                try {
-                                                    return albumDirectories.stream()
-                                                            .map(albumDirectory -> googlePhotosUploader
-                                                                    .uploadDirectory(
-                                                                            albumDirectory.albumTitle().map(albumsByTitle::get),
-                                                                            albumDirectory.files(),
-                                                                            directoryProgressStatus,
-                                                                            fileProgressStatus)
-                                                                    .thenRun(directoryProgressStatus::incrementSuccess))
-                                                            .collect(toFutureOfList())
-                                                            .whenComplete((ignored2, e) -> {
-                                                                directoryProgressStatus.close(e == null);
-                                                                fileProgressStatus.close(e == null);
-                                                            })
-                                                            .thenRun(() -> logger.info("All done without fatal errors"));
-                                                } catch (RuntimeException e) {
-                                                    directoryProgressStatus.closeUnsuccessfully();
-                                                    fileProgressStatus.closeUnsuccessfully();
-                                                    throw e;
-                                                }
-                                            })));
+                            .exceptionally(e -> {
+                                // the failure of the directory upload that aborted the scan is reported instead
+                                if (scanAborted.get()) {
+                                    return null;
+                                }
+                                throw new CompletionException(e);
+                            })
+                            .thenCompose(ignored2 -> directoryUploadFutures.stream().collect(toFutureOfList()))
+                            .whenComplete((ignored2, e) -> {
+                                albumReconciler.close(e == null);
+                                directoryProgressStatus.close(e == null);
+                                fileProgressStatus.close(e == null);
+                            })
+                            .thenRun(() -> logger.info("All done without fatal errors"));
+                });
+    }
+
+    @Override
+    public CompletableFuture<Void> uploadFiles(Path rootDir, Collection<Path> files) {
+        var albumDirectories = directoryStructureSupplier.toAlbumDirectories(rootDir, files);
+        if (albumDirectories.isEmpty()) {
+            return completedFuture(null);
+        }
+        var fileCount = albumDirectories.stream().mapToInt(albumDirectory -> albumDirectory.files().size()).sum();
+        logger.info("Uploading {} file(s) in {} directories", fileCount, albumDirectories.size());
+        return driveSpaceTracker.reset()
+                .thenCompose(ignored -> {
+                    var albumReconciler = albumManager.newReconciler();
+                    var fileProgressStatus = progressStatusFactory.create(resourceBundle.getString("uploaderFileProgressTitle"),
+                            Optional.of(fileCount));
+                    var directoryProgressStatus = progressStatusFactory.create(resourceBundle.getString("uploaderAlbumProgressTitle"),
+                            Optional.of(albumDirectories.size()));
+                    return albumDirectories.stream()
+                            .map(albumDirectory -> uploadAlbumDirectory(albumReconciler, albumDirectory, directoryProgressStatus, fileProgressStatus))
+                            .collect(toFutureOfList())
+                            .whenComplete((ignored2, e) -> {
+                                albumReconciler.close(e == null);
+                                directoryProgressStatus.close(e == null);
+                                fileProgressStatus.close(e == null);
+                            })
+                            .thenRun(() -> logger.info("Uploaded {} directories", albumDirectories.size()));
                 });
     }
 
+    private CompletableFuture<Void> uploadAlbumDirectory(AlbumReconciler albumReconciler,
+                                                         AlbumDirectory albumDirectory,
+                                                         ProgressStatus directoryProgressStatus,
+                                                         ProgressStatus fileProgressStatus) {
+        return googlePhotosUploader.uploadDirectory(
+                        albumReconciler.albumFor(albumDirectory),
+                        albumDirectory.files(),
+                        albumDirectory.fileSizes(),
+                        directoryProgressStatus,
+                        fileProgressStatus)
+                .thenAccept(uploadedFiles -> saveManifestsOfUploadedDirectories(albumDirectory, uploadedFiles))
+                .thenRun(directoryProgressStatus::incrementSuccess);
+    }
+
+    /**
+     * Called once adding to the album has finished; files whose items could not be added are not among {@code uploadedFiles}, so their
+     * directories are listed again next time.
+     */
+    private void saveManifestsOfUploadedDirectories(AlbumDirectory albumDirectory, Set<Path> uploadedFiles) {
+        albumDirectory.directoryManifests().stream()
+                .filter(manifest -> albumDirectory.files().stream()
+                        .filter(file -> manifest.path().equals(file.getParent()))
+                        .allMatch(uploadedFiles::contains))
+                .forEach(uploadStateManager::saveDirectoryManifest);
+    }
+
     @Override
     public int numberOfUploadedItems() {
         return uploadStateManager.itemCount();
@@ -0,0 +1,151 @@
+package net.yudichev.googlephotosupload.cli;
+
+import com.google.common.collect.ImmutableSet;
+import net.yudichev.jiotty.common.time.CurrentDateTimeProvider;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import static java.time.Instant.EPOCH;
+import static java.util.concurrent.CompletableFuture.completedFuture;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+class DirectoryWatcherTest {
+    @TempDir
+    Path rootDir;
+    private volatile Instant currentInstant;
+    private final BlockingQueue<Set<Path>> reportedFiles = new LinkedBlockingQueue<>();
+    private volatile CompletableFuture<Void> handlerFuture;
+    private DirectoryWatcher watcher;
+    private DirectoryWatcher.Listener listener;
+
+    @BeforeEach
+    void setUp() {
+        currentInstant = EPOCH;
+        handlerFuture = completedFuture(null);
+        watcher = new DirectoryWatcher(new CurrentDateTimeProvider() {
+            @Override
+            public LocalDateTime currentDateTime() {
+                return LocalDateTime.ofInstant(currentInstant(), ZoneOffset.UTC);
+            }
+
+            @Override
+            public Instant currentInstant() {
+                return currentInstant;
+            }
+        });
+        listener = new DirectoryWatcher.Listener() {
+            @Override
+            public CompletableFuture<Void> onFilesChanged(Set<Path> files) {
+                reportedFiles.add(files);
+                return handlerFuture;
+            }
+
+            @Override
+            public CompletableFuture<Void> onChangesLost() {
+                throw new UnsupportedOperationException("not expected");
+            }
+        };
+    }
+
+    @AfterEach
+    void tearDown() {
+        watcher.stop();
+    }
+
+    @Test
+    void reportsChangedFilesOnceQuiet() {
+        var file1 = rootDir.resolve("file1.jpg");
+        var file2 = rootDir.resolve("file2.jpg");
+        watcher.onFileChanged(file1);
+        advanceTimeBy(Duration.ofSeconds(5));
+        watcher.onFileChanged(file2);
+
+        advanceTimeBy(Duration.ofSeconds(9));
+        watcher.flushIfDue(listener);
+        assertThat(reportedFiles, is(empty()));
+
+        advanceTimeBy(Duration.ofSeconds(1));
+        watcher.flushIfDue(listener);
+        assertThat(reportedFiles, contains(ImmutableSet.of(file1, file2)));
+    }
+
+    @Test
+    void afterMaxDelayReportsOnlyFilesThatAreNoLongerChanging() {
+        var completeFile = rootDir.resolve("complete.jpg");
+        var growingFile = rootDir.resolve("growing.mp4");
+        watcher.onFileChanged(completeFile);
+        for (var i = 0; i < 24; i++) {
+            watcher.onFileChanged(growingFile);
+            advanceTimeBy(Duration.ofSeconds(5));
+            watcher.flushIfDue(listener);
+        }
+        assertThat(reportedFiles, contains(ImmutableSet.of(completeFile)));
+
+        advanceTimeBy(Duration.ofSeconds(10));
+        watcher.flushIfDue(listener);
+        assertThat(reportedFiles, contains(ImmutableSet.of(completeFile), ImmutableSet.of(growingFile)));
+    }
+
+    @Test
+    void waitsForPreviousHandlerToComplete() {
+        var file1 = rootDir.resolve("file1.jpg");
+        var file2 = rootDir.resolve("file2.jpg");
+        var firstHandlerFuture = new CompletableFuture<Void>();
+        handlerFuture = firstHandlerFuture;
+        watcher.onFileChanged(file1);
+        advanceTimeBy(Duration.ofSeconds(10));
+        watcher.flushIfDue(listener);
+
+        watcher.onFileChanged(file2);
+        advanceTimeBy(Duration.ofSeconds(10));
+        watcher.flushIfDue(listener);
+        assertThat(reportedFiles, contains(ImmutableSet.of(file1)));
+
+        firstHandlerFuture.complete(null);
+        watcher.flushIfDue(listener);
+        assertThat(reportedFiles, contains(ImmutableSet.of(file1), ImmutableSet.of(file2)));
+    }
+
+    @Test
+    void reportsFilesAddedDuringInitialUploadOnceItCompletes() throws Exception {
+        var initialUploadFuture = new CompletableFuture<Void>();
+        watcher.start(rootDir, initialUploadFuture, listener);
+
+        var subDir = Files.createDirectory(rootDir.resolve("album"));
+        var file = Files.writeString(subDir.resolve("photo.jpg"), "data");
+        assertThat(awaitReportedFiles(), is(nullValue()));
+
+        initialUploadFuture.complete(null);
+        assertThat(awaitReportedFiles(), is(ImmutableSet.of(file)));
+    }
+
+    private Set<Path> awaitReportedFiles() throws InterruptedException {
+        for (var i = 0; i < 5; i++) {
+            advanceTimeBy(Duration.ofSeconds(11));
+            var files = reportedFiles.poll(1500, MILLISECONDS);
+            if (files != null) {
+                return files;
+            }
+        }
+        return null;
+    }
+
+    private void advanceTimeBy(Duration duration) {
+        currentInstant = currentInstant.plus(duration);
+    }
+}
@@ -0,0 +1,235 @@
+package net.yudichev.googlephotosupload.core;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.MoreExecutors;
+import net.yudichev.jiotty.common.time.CurrentDateTimeProvider;
+import net.yudichev.jiotty.connector.google.photos.GoogleMediaItem;
+import net.yudichev.jiotty.connector.google.photos.GooglePhotosAlbum;
+import net.yudichev.jiotty.connector.google.photos.GooglePhotosClient;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.function.IntConsumer;
+import java.util.function.LongConsumer;
+import java.util.function.Supplier;
+import java.util.stream.IntStream;
+
+import static com.google.common.collect.ImmutableList.toImmutableList;
+import static java.time.Instant.EPOCH;
+import static net.yudichev.googlephotosupload.core.AlbumManagerImpl.MAX_IN_FLIGHT_MERGE_BATCHES;
+import static net.yudichev.googlephotosupload.core.OptionalMatchers.optionalWithValue;
+import static net.yudichev.googlephotosupload.core.ResourceBundleModule.RESOURCE_BUNDLE;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class AlbumManagerImplTest {
+    private static final String TITLE = "album";
+    private static final int BATCHES_PER_DUPLICATE = 3;
+    private static final int ITEMS_PER_BATCH = 49;
+
+    private final Deque<PendingCall> pendingCalls = new ArrayDeque<>();
+    private final Set<String> idsInPrimaryAlbum = new HashSet<>();
+    private final List<String> orderingViolations = new ArrayList<>();
+    private final RecordingProgressStatusFactory progressStatusFactory = new RecordingProgressStatusFactory();
+    @Mock
+    private GooglePhotosClient googlePhotosClient;
+    @Mock
+    private CloudAlbumsProvider cloudAlbumsProvider;
+    private Instant currentInstant;
+    private int maxPendingCallCount;
+    private AlbumManagerImpl albumManager;
+
+    @BeforeEach
+    void setUp() {
+        currentInstant = EPOCH;
+        var executorService = MoreExecutors.newDirectExecutorService();
+        albumManager = new AlbumManagerImpl(
+                googlePhotosClient,
+                () -> executorService,
+                new ApiOperationRetry() {
+                    @Override
+                    public <T> CompletableFuture<T> withBackOffAndRetry(ApiOperationClass operationClass,
+                                                                        String operationName,
+                                                                        Executor executor,
+                                                                        Supplier<? extends CompletableFuture<T>> action,
+                                                                        LongConsumer backoffEventConsumer) {
+                        return action.get();
+                    }
+                },
+                progressStatusFactory,
+                RESOURCE_BUNDLE,
+                cloudAlbumsProvider,
+                new CurrentDateTimeProvider() {
+                    @Override
+                    public LocalDateTime currentDateTime() {
+                        return LocalDateTime.ofInstant(currentInstant(), ZoneOffset.UTC);
+                    }
+
+                    @Override
+                    public Instant currentInstant() {
+                        return currentInstant;
+                    }
+                });
+        albumManager.start();
+    }
+
+    @AfterEach
+    void tearDown() {
+        albumManager.stop();
+    }
+
+    @Test
+    void mergesAllDuplicatesWithinSharedBoundAddingEachBatchBeforeRemovingIt() {
+        GooglePhotosAlbum primaryAlbum = new FakeAlbum("primary", true, ImmutableList.of(mediaItem("primary-item")));
+        List<GooglePhotosAlbum> duplicates = IntStream.range(0, 3)
+                .<GooglePhotosAlbum>mapToObj(i -> new FakeAlbum("duplicate" + i, false, mediaItems("duplicate" + i + "-item", BATCHES_PER_DUPLICATE * ITEMS_PER_BATCH)))
+                .collect(toImmutableList());
+        givenCloudAlbums(ImmutableList.<GooglePhotosAlbum>builder().add(primaryAlbum).addAll(duplicates).build());
+
+        var reconciler = albumManager.newReconciler();
+        var albumFuture = reconciler.albumFor(AlbumDirectory.builder()
+                .setPath(Paths.get(TITLE))
+                .setAlbumTitle(TITLE)
+                .build());
+        while (!pendingCalls.isEmpty()) {
+            currentInstant = currentInstant.plusSeconds(1);
+            pendingCalls.remove().complete();
+        }
+
+        assertThat(albumFuture.join(), optionalWithValue(sameInstance(primaryAlbum)));
+        assertThat(maxPendingCallCount, is(MAX_IN_FLIGHT_MERGE_BATCHES));
+        assertThat(orderingViolations, is(empty()));
+        assertThat(idsInPrimaryAlbum, hasSize(1 + duplicates.size() * BATCHES_PER_DUPLICATE * ITEMS_PER_BATCH));
+        duplicates.forEach(duplicate -> assertThat(((FakeAlbum) duplicate).items, is(empty())));
+
+        var movedItemCount = duplicates.size() * BATCHES_PER_DUPLICATE * ITEMS_PER_BATCH;
+        var mergeStatus = progressStatusFactory.getStatusByName().get(String.format(
+                RESOURCE_BUNDLE.getString("albumManagerMergeProgressTitle"), TITLE));
+        assertThat(mergeStatus.getTotalCount(), optionalWithValue(is(movedItemCount)));
+        assertThat(mergeStatus.getSuccessCount(), is(movedItemCount));
+        assertThat(mergeStatus.getDescription(), is(String.format(RESOURCE_BUNDLE.getString("albumManagerMergeThroughput"),
+                movedItemCount / Duration.between(EPOCH, currentInstant).toSeconds())));
+        assertThat(mergeStatus.getClosedWithSuccess(), optionalWithValue(is(true)));
+        assertThat(progressStatusFactory.getRecordedErrorsByProgressName().get(RESOURCE_BUNDLE.getString("albumManagerProgressStatusTitle")),
+                hasSize(duplicates.size()));
+    }
+
+    private void givenCloudAlbums(List<GooglePhotosAlbum> albums) {
+        when(cloudAlbumsProvider.listCloudAlbums()).thenReturn(CompletableFuture.completedFuture(Map.of(TITLE, albums)));
+        when(cloudAlbumsProvider.resolveAlbums(any(), any())).thenAnswer(invocation ->
+                CompletableFuture.completedFuture(invocation.<List<GooglePhotosAlbum>>getArgument(0)));
+    }
+
+    private CompletableFuture<Void> pendingCall(Runnable onCompletion) {
+        var pendingCall = new PendingCall(onCompletion);
+        pendingCalls.add(pendingCall);
+        maxPendingCallCount = Math.max(maxPendingCallCount, pendingCalls.size());
+        return pendingCall.future;
+    }
+
+    private static List<GoogleMediaItem> mediaItems(String idPrefix, int count) {
+        return IntStream.range(0, count)
+                .mapToObj(i -> mediaItem(idPrefix + i))
+                .collect(toImmutableList());
+    }
+
+    private static GoogleMediaItem mediaItem(String id) {
+        var mediaItem = mock(GoogleMediaItem.class);
+        when(mediaItem.getId()).thenReturn(id);
+        return mediaItem;
+    }
+
+    private static final class PendingCall {
+        private final Runnable onCompletion;
+        private final CompletableFuture<Void> future = new CompletableFuture<>();
+
+        PendingCall(Runnable onCompletion) {
+            this.onCompletion = onCompletion;
+        }
+
+        void complete() {
+            onCompletion.run();
+            future.complete(null);
+        }
+    }
+
+    /**
+     * Lists its items at once, but every modification stays pending until the test completes it.
+     */
+    private final class FakeAlbum implements GooglePhotosAlbum {
+        private final String id;
+        private final boolean primary;
+        private final Map<String, GoogleMediaItem> items = new LinkedHashMap<>();
+
+        FakeAlbum(String id, boolean primary, List<GoogleMediaItem> items) {
+            this.id = id;
+            this.primary = primary;
+            items.forEach(item -> this.items.put(item.getId(), item));
+            if (primary) {
+                idsInPrimaryAlbum.addAll(this.items.keySet());
+            }
+        }
+
+        @Override
+        public String getTitle() {
+            return TITLE;
+        }
+
+        @Override
+        public String getId() {
+            return id;
+        }
+
+        @Override
+        public long getMediaItemCount() {
+            return items.size();
+        }
+
+        @Override
+        public String getAlbumUrl() {
+            return "https://photos.google.com/" + id;
+        }
+
+        @Override
+        public boolean isWriteable() {
+            return true;
+        }
+
+        @Override
+        public CompletableFuture<Void> addMediaItemsByIds(List<String> mediaItemsIds, Executor executor) {
+            if (!primary) {
+                orderingViolations.add("added to duplicate " + id);
+            }
+            return pendingCall(() -> idsInPrimaryAlbum.addAll(mediaItemsIds));
+        }
+
+        @Override
+        public CompletableFuture<Void> removeMediaItemsByIds(List<String> mediaItemsIds, Executor executor) {
+            mediaItemsIds.stream()
+                    .filter(mediaItemId -> !idsInPrimaryAlbum.contains(mediaItemId))
+                    .forEach(mediaItemId -> orderingViolations.add("removed " + mediaItemId + " from " + id + " before it was added"));
+            return pendingCall(() -> mediaItemsIds.forEach(items::remove));
+        }
+
+        @Override
+        public CompletableFuture<List<GoogleMediaItem>> getMediaItems(IntConsumer loadedItemCountProgressCallback, Executor executor) {
+            return CompletableFuture.completedFuture(ImmutableList.copyOf(items.values()));
+        }
+    }
+}
@@ -0,0 +1,204 @@
+package net.yudichev.googlephotosupload.core;
+
+import com.google.api.gax.grpc.GrpcStatusCode;
+import com.google.api.gax.rpc.NotFoundException;
+import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.MoreExecutors;
+import io.grpc.Status;
+import io.grpc.StatusRuntimeException;
+import net.yudichev.jiotty.common.time.CurrentDateTimeProvider;
+import net.yudichev.jiotty.connector.google.photos.GooglePhotosAlbum;
+import net.yudichev.jiotty.connector.google.photos.GooglePhotosClient;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.function.LongConsumer;
+import java.util.function.Supplier;
+
+import static com.google.common.collect.Iterables.getOnlyElement;
+import static java.util.concurrent.CompletableFuture.completedFuture;
+import static net.yudichev.googlephotosupload.core.ResourceBundleModule.RESOURCE_BUNDLE;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class CloudAlbumsProviderImplTest {
+    private static final Instant NOW = Instant.parse("2020-06-01T12:00:00Z");
+    private static final CachedCloudAlbum CACHED_ALBUM = cachedAlbum("id1", "title1");
+    private static final CachedCloudAlbum OTHER_CACHED_ALBUM = cachedAlbum("id2", "title2");
+
+    @Mock
+    private GooglePhotosClient googlePhotosClient;
+    @Mock
+    private ProgressStatusFactory progressStatusFactory;
+    @Mock
+    private ProgressStatus progressStatus;
+    @Mock
+    private UploadStateManager uploadStateManager;
+    @Mock
+    private PreferencesManager preferencesManager;
+    private CloudAlbumsProviderImpl provider;
+
+    @BeforeEach
+    void setUp() {
+        var executorService = MoreExecutors.newDirectExecutorService();
+        provider = new CloudAlbumsProviderImpl(
+                new ApiOperationRetry() {
+                    @Override
+                    public <T> CompletableFuture<T> withBackOffAndRetry(ApiOperationClass operationClass,
+                                                                        String operationName,
+                                                                        Executor executor,
+                                                                        Supplier<? extends CompletableFuture<T>> action,
+                                                                        LongConsumer backoffEventConsumer) {
+                        return action.get();
+                    }
+                },
+                googlePhotosClient,
+                () -> executorService,
+                progressStatusFactory,
+                RESOURCE_BUNDLE,
+                uploadStateManager,
+                preferencesManager,
+                new CurrentDateTimeProvider() {
+                    @Override
+                    public LocalDateTime currentDateTime() {
+                        return LocalDateTime.ofInstant(NOW, ZoneOffset.UTC);
+                    }
+
+                    @Override
+                    public Instant currentInstant() {
+                        return NOW;
+                    }
+                });
+        provider.start();
+    }
+
+    @AfterEach
+    void tearDown() {
+        provider.stop();
+    }
+
+    @Test
+    void usesCachedAlbumsWithinTtl() {
+        givenCacheListedAgo(Duration.ofHours(23), CACHED_ALBUM);
+
+        var albumsByTitle = provider.listCloudAlbums().getNow(null);
+
+        assertThat(albumsByTitle.keySet(), contains("title1"));
+        assertThat(getOnlyElement(albumsByTitle.get("title1")).getId(), is("id1"));
+        verifyNoInteractions(googlePhotosClient);
+    }
+
+    @Test
+    void listsAllAlbumsAndCachesThemOnceCacheExpired() {
+        givenLastListedAgo(Duration.ofHours(24));
+        var liveAlbum = liveAlbum(CACHED_ALBUM);
+        givenAlbumsInCloud(liveAlbum);
+
+        var albumsByTitle = provider.listCloudAlbums().getNow(null);
+
+        assertThat(getOnlyElement(albumsByTitle.get("title1")), is(sameInstance(liveAlbum)));
+        verify(uploadStateManager).saveCloudAlbums(ImmutableList.of(CACHED_ALBUM), NOW);
+    }
+
+    @Test
+    void resolvesCachedAlbumsOneByOneWithoutListingAllAlbums() {
+        givenCacheListedAgo(Duration.ofHours(1), CACHED_ALBUM, OTHER_CACHED_ALBUM);
+        var liveAlbum = liveAlbum(CACHED_ALBUM);
+        when(googlePhotosClient.getAlbum(eq("id1"), any())).thenReturn(completedFuture(liveAlbum));
+
+        var albumsByTitle = provider.listCloudAlbums().getNow(null);
+        var resolvedAlbums = provider.resolveAlbums(albumsByTitle.get("title1"), backOffMs -> {}).join();
+
+        assertThat(getOnlyElement(resolvedAlbums), is(sameInstance(liveAlbum)));
+        verify(uploadStateManager).saveCloudAlbum(CACHED_ALBUM);
+        verify(googlePhotosClient).getAlbum(eq("id1"), any());
+        verifyNoMoreInteractions(googlePhotosClient);
+    }
+
+    @Test
+    void doesNotLoadAlbumsThatAreAlreadyLive() {
+        var liveAlbum = mock(GooglePhotosAlbum.class);
+
+        var resolvedAlbums = provider.resolveAlbums(ImmutableList.of(liveAlbum), backOffMs -> {}).join();
+
+        assertThat(getOnlyElement(resolvedAlbums), is(sameInstance(liveAlbum)));
+        verifyNoInteractions(googlePhotosClient);
+    }
+
+    @Test
+    void forgetsCachedAlbumThatNoLongerExistsInCloud() {
+        givenCacheListedAgo(Duration.ofHours(1), CACHED_ALBUM);
+        when(googlePhotosClient.getAlbum(eq("id1"), any())).thenReturn(CompletableFuture.failedFuture(new NotFoundException(
+                new StatusRuntimeException(Status.NOT_FOUND), GrpcStatusCode.of(Status.Code.NOT_FOUND), false)));
+
+        var cachedAlbums = provider.listCloudAlbums().getNow(null).get("title1");
+        var resolvedAlbums = provider.resolveAlbums(cachedAlbums, backOffMs -> {}).join();
+
+        assertThat(resolvedAlbums, is(empty()));
+        verify(uploadStateManager).forgetCloudAlbum("id1");
+    }
+
+    @Test
+    void failsToResolveCachedAlbumOnOtherErrors() {
+        givenCacheListedAgo(Duration.ofHours(1), CACHED_ALBUM);
+        when(googlePhotosClient.getAlbum(eq("id1"), any())).thenReturn(CompletableFuture.failedFuture(new RuntimeException("oops")));
+
+        var cachedAlbums = provider.listCloudAlbums().getNow(null).get("title1");
+        var resolveFuture = provider.resolveAlbums(cachedAlbums, backOffMs -> {});
+
+        assertThat(resolveFuture.isCompletedExceptionally(), is(true));
+        verify(uploadStateManager, never()).forgetCloudAlbum(any());
+    }
+
+    private void givenCacheListedAgo(Duration age, CachedCloudAlbum... albums) {
+        givenLastListedAgo(age);
+        when(uploadStateManager.loadCloudAlbums()).thenReturn(ImmutableList.copyOf(albums));
+    }
+
+    private void givenLastListedAgo(Duration age) {
+        when(preferencesManager.get()).thenReturn(Preferences.builder().build());
+        when(uploadStateManager.cloudAlbumsListingInstant()).thenReturn(Optional.of(NOW.minus(age)));
+    }
+
+    private void givenAlbumsInCloud(GooglePhotosAlbum... albums) {
+        when(progressStatusFactory.create(anyString(), any())).thenReturn(progressStatus);
+        when(googlePhotosClient.listAlbums(any(), any())).thenReturn(CompletableFuture.<List<GooglePhotosAlbum>>completedFuture(List.of(albums)));
+    }
+
+    private static GooglePhotosAlbum liveAlbum(CachedCloudAlbum cachedAlbum) {
+        var album = mock(GooglePhotosAlbum.class);
+        when(album.getId()).thenReturn(cachedAlbum.id());
+        when(album.getTitle()).thenReturn(cachedAlbum.title());
+        when(album.isWriteable()).thenReturn(cachedAlbum.writeable());
+        when(album.getMediaItemCount()).thenReturn(cachedAlbum.mediaItemCount());
+        when(album.getAlbumUrl()).thenReturn(cachedAlbum.albumUrl());
+        return album;
+    }
+
+    private static CachedCloudAlbum cachedAlbum(String id, String title) {
+        return CachedCloudAlbum.builder()
+                .setId(id)
+                .setTitle(title)
+                .setWriteable(true)
+                .setMediaItemCount(1)
+                .setAlbumUrl("https://photos.google.com/" + id)
+                .build();
+    }
+}
@@ -0,0 +1,93 @@
+package net.yudichev.googlephotosupload.core;
+
+import com.google.common.collect.ImmutableSet;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.nio.file.FileSystems;
+import java.nio.file.Paths;
+import java.util.Set;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+class CompiledPathFilterTest {
+    private static final Set<String> PATTERNS = ImmutableSet.<String>builder()
+            .addAll(BasePreferences.DEFAULT_SCAN_EXCLUSION_GLOBS)
+            .add("glob:**/@eaDir/**")
+            .add("glob:**/tmp*/**")
+            .add("glob:**/*.tar.gz")
+            .add("glob:**/*")
+            .add("glob:*.jpg")
+            .add("regex:.*/custom_pattern/.*")
+            .build();
+
+    @ParameterizedTest
+    @ValueSource(strings = {
+            "/path/to/picasa.ini",
+            "/path/to/.picasa.ini",
+            "/path/to/.file.jpg",
+            "/path/.to/file.jpg",
+            "/path/.to/some/file.jpg",
+            ".to/file.jpg",
+            "to/.some/file.jpg",
+            "/path/to/.DS_Store",
+            "/path/to/Thumbs.db",
+            "Thumbs.db",
+            "/Thumbs.db",
+            "/path/to/thumbs.db",
+            "/path/to/a.txt",
+            "/path/to/a.TXT",
+            "/path/to/a.Txt",
+            "/path/to/.txt",
+            "/path/to/a.txt.jpg",
+            "/path/to/a.html",
+            "/path/to/desktop.ini",
+            "/path/to/x.picasaoriginals",
+            "/path/to/picasaoriginals/a.jpg",
+            "/path/@eaDir/a.jpg",
+            "@eaDir/a.jpg",
+            "/path/to/@eaDir",
+            "/path/tmp123/a.jpg",
+            "/path/to/tmp123.jpg",
+            "/path/to/a.tar.gz",
+            "/path/custom_pattern/a.jpg",
+            "/path/to/a.jpg",
+            "a.jpg",
+            "/",
+    })
+    void matchesSameAsPathMatchers(String pathString) {
+        var path = Paths.get(pathString);
+        var fileSystem = FileSystems.getDefault();
+        for (var pattern : PATTERNS) {
+            var patterns = ImmutableSet.of(pattern);
+            assertThat(pattern + " on " + path,
+                    CompiledPathFilter.compile(patterns).matchesAny(path),
+                    is(fileSystem.getPathMatcher(pattern).matches(path)));
+        }
+        assertThat(CompiledPathFilter.compile(PATTERNS).matchesAny(path),
+                is(PATTERNS.stream().anyMatch(pattern -> fileSystem.getPathMatcher(pattern).matches(path))));
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {
+            "/path/.git",
+            "/path/.thumbnails",
+            "/path/@eaDir",
+            "/path/tmp1",
+            ".git",
+            "/path/photos",
+    })
+    void matchesAllUnderDirectoryOnlyIfPathMatchersMatchItsContents(String dirString) {
+        var dir = Paths.get(dirString);
+        var fileSystem = FileSystems.getDefault();
+        var filter = CompiledPathFilter.compile(ImmutableSet.of("glob:**/.*/**", "glob:**/@eaDir/**", "glob:**/tmp*/**"));
+        if (filter.matchesAllUnder(dir)) {
+            for (var path : ImmutableSet.of(dir.resolve("a.jpg"), dir.resolve("sub/a.jpg"))) {
+                assertThat(path.toString(), filter.matchesAny(path), is(true));
+                assertThat(path.toString(), fileSystem.getPathMatcher("glob:**/{.*,@eaDir,tmp*}/**").matches(path), is(true));
+            }
+        }
+        assertThat(filter.matchesAllUnder(dir), is(!dirString.equals(".git") && !dirString.equals("/path/photos")));
+    }
+}
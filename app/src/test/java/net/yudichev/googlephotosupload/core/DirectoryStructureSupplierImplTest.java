@@ -0,0 +1,212 @@
+package net.yudichev.googlephotosupload.core;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Streams;
+import net.yudichev.jiotty.common.time.CurrentDateTimeProvider;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.collect.ImmutableList.toImmutableList;
+import static com.google.common.collect.ImmutableSet.toImmutableSet;
+import static java.nio.file.FileVisitResult.CONTINUE;
+import static java.util.stream.Collectors.joining;
+import static net.yudichev.googlephotosupload.core.ResourceBundleModule.RESOURCE_BUNDLE;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class DirectoryStructureSupplierImplTest {
+    private static final List<String> FIXTURE_FILES = ImmutableList.of(
+            "root.jpg",
+            "a/a.jpg",
+            "a/b/b.jpg",
+            "a/b/c/c.jpg",
+            "a/b/c/d/d.jpg",
+            "a/no-files/e/e.jpg",
+            "x/notes.txt",
+            "x/y/y.jpg",
+            "x/y/z/z1.jpg",
+            "x/y/z/z2.jpg",
+            ".hidden/h.jpg",
+            "only-excluded/notes.txt");
+
+    @TempDir
+    Path tempDir;
+    @Mock
+    private PreferencesManager preferencesManager;
+    @Mock
+    private UploadStateManager uploadStateManager;
+    private Path rootDir;
+    private DirectoryStructureSupplierImpl directoryStructureSupplier;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        rootDir = tempDir.resolve("root");
+        for (var file : FIXTURE_FILES) {
+            var path = rootDir.resolve(file);
+            Files.createDirectories(path.getParent());
+            Files.writeString(path, file);
+        }
+        var now = Instant.now();
+        directoryStructureSupplier = new DirectoryStructureSupplierImpl(
+                new RecordingProgressStatusFactory(),
+                preferencesManager,
+                RESOURCE_BUNDLE,
+                uploadStateManager,
+                new CurrentDateTimeProvider() {
+                    @Override
+                    public LocalDateTime currentDateTime() {
+                        return LocalDateTime.ofInstant(now, ZoneOffset.UTC);
+                    }
+
+                    @Override
+                    public Instant currentInstant() {
+                        return now;
+                    }
+                });
+    }
+
+    @Test
+    void findsSameAlbumsAsFileTreeWalkWithoutDepthLimit() throws Exception {
+        assertScanMatchesFileTreeWalk(Preferences.builder().build());
+    }
+
+    @Test
+    void findsSameAlbumsAsFileTreeWalkWithDepthLimits() throws Exception {
+        for (var depthLimit = 1; depthLimit <= 5; depthLimit++) {
+            assertScanMatchesFileTreeWalk(Preferences.builder().setRelevantDirDepthLimit(depthLimit).build());
+        }
+    }
+
+    @Test
+    void findsSameAlbumsAsFileTreeWalkWithCustomDelimiter() throws Exception {
+        assertScanMatchesFileTreeWalk(Preferences.builder().setAlbumDelimiter(" / ").build());
+        assertScanMatchesFileTreeWalk(Preferences.builder().setAlbumDelimiter(" / ").setRelevantDirDepthLimit(3).build());
+    }
+
+    @Test
+    void collectsFilesOfDirectoriesBelowDepthLimitIntoAlbumAtTheLimit() throws Exception {
+        var albumDirectories = scan(Preferences.builder().setRelevantDirDepthLimit(2).setAlbumDelimiter(" / ").build());
+
+        var albumA = albumDirectories.stream().filter(album -> album.path().equals(rootDir.resolve("a"))).findFirst().orElseThrow();
+        assertThat(albumA.albumTitle(), is(Optional.of("a")));
+        assertThat(albumA.files(), contains(
+                rootDir.resolve("a/a.jpg"),
+                rootDir.resolve("a/b/b.jpg"),
+                rootDir.resolve("a/b/c/c.jpg"),
+                rootDir.resolve("a/b/c/d/d.jpg"),
+                rootDir.resolve("a/no-files/e/e.jpg")));
+    }
+
+    @Test
+    void emitsAlbumsAboveDepthLimitBeforeAlbumsInTheirSubdirectories() throws Exception {
+        var albumDirectories = scan(Preferences.builder().build());
+
+        var emittedPaths = albumDirectories.stream().map(AlbumDirectory::path).collect(toImmutableList());
+        for (var i = 0; i < emittedPaths.size(); i++) {
+            var path = emittedPaths.get(i);
+            emittedPaths.subList(i + 1, emittedPaths.size()).forEach(laterPath ->
+                    assertThat(path + " emitted after its subdirectory " + laterPath, laterPath.startsWith(path) && !laterPath.equals(path), is(false)));
+        }
+        assertThat(emittedPaths, hasItems(rootDir, rootDir.resolve("a"), rootDir.resolve("a/b/c/d")));
+    }
+
+    private void assertScanMatchesFileTreeWalk(Preferences preferences) throws Exception {
+        assertThat("preferences " + preferences,
+                comparableAlbums(scan(preferences)),
+                is(comparableAlbums(walkFileTree(rootDir, preferences))));
+    }
+
+    private List<AlbumDirectory> scan(Preferences preferences) throws Exception {
+        when(preferencesManager.get()).thenReturn(preferences);
+        List<AlbumDirectory> albumDirectories = new CopyOnWriteArrayList<>();
+        directoryStructureSupplier.listAlbumDirectories(ImmutableList.of(rootDir), albumDirectories::add).get(5, TimeUnit.SECONDS);
+        return albumDirectories;
+    }
+
+    /**
+     * Only the path, title and files: the sizes and manifests are not known to the file tree walk.
+     */
+    private static Set<AlbumDirectory> comparableAlbums(List<AlbumDirectory> albumDirectories) {
+        return albumDirectories.stream()
+                .map(albumDirectory -> AlbumDirectory.builder()
+                        .setPath(albumDirectory.path())
+                        .setAlbumTitle(albumDirectory.albumTitle())
+                        .setFiles(albumDirectory.files().stream().sorted().collect(toImmutableList()))
+                        .build())
+                .collect(toImmutableSet());
+    }
+
+    /**
+     * The scan as it was done before it was parallelized, with a single {@link Files#walkFileTree}.
+     */
+    private static List<AlbumDirectory> walkFileTree(Path rootDir, Preferences preferences) throws IOException {
+        var rootNameCount = rootDir.getNameCount();
+        var relevantDepthLimit = preferences.relevantDirDepthLimit().orElse(Integer.MAX_VALUE);
+        Map<Path, ImmutableList.Builder<Path>> fileListBuilderByParentDir = new HashMap<>();
+        Files.walkFileTree(rootDir, new SimpleFileVisitor<>() {
+            private int currentDepth;
+            private Path currentRelevantDir;
+
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+                if (++currentDepth <= relevantDepthLimit) {
+                    currentRelevantDir = dir;
+                }
+                return CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path dir, IOException exc) {
+                if (--currentDepth <= relevantDepthLimit) {
+                    currentRelevantDir = dir.getParent();
+                }
+                return CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                if (preferences.shouldIncludePath(file)) {
+                    fileListBuilderByParentDir
+                            .computeIfAbsent(currentRelevantDir, ignored -> ImmutableList.builder())
+                            .add(file);
+                }
+                return CONTINUE;
+            }
+        });
+        return fileListBuilderByParentDir.entrySet().stream()
+                .map(entry -> AlbumDirectory.builder()
+                        .setPath(entry.getKey())
+                        .setAlbumTitle(albumTitle(entry.getKey(), preferences.albumDelimiter(), rootNameCount))
+                        .setFiles(entry.getValue().build())
+                        .build())
+                .collect(toImmutableList());
+    }
+
+    private static Optional<String> albumTitle(Path path, String albumNameDelimiter, int rootNameCount) {
+        var nameCount = path.getNameCount();
+        return nameCount > rootNameCount ?
+                Optional.of(Streams.stream(path.subpath(rootNameCount, nameCount).iterator())
+                        .map(Path::toString)
+                        .collect(joining(albumNameDelimiter))) :
+                Optional.empty();
+    }
+}
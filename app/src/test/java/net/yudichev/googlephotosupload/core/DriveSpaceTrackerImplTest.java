@@ -0,0 +1,203 @@
+package net.yudichev.googlephotosupload.core;
+
+import com.google.api.services.drive.model.About;
+import net.yudichev.jiotty.common.async.AsyncOperationRetry;
+import net.yudichev.jiotty.common.time.CurrentDateTimeProvider;
+import net.yudichev.jiotty.connector.google.drive.GoogleDriveClient;
+import net.yudichev.jiotty.connector.google.drive.GoogleDrivePath;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.LongConsumer;
+import java.util.function.Supplier;
+
+import static java.time.Instant.EPOCH;
+import static net.yudichev.googlephotosupload.core.OptionalMatchers.optionalWithValue;
+import static net.yudichev.googlephotosupload.core.ResourceBundleModule.RESOURCE_BUNDLE;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class DriveSpaceTrackerImplTest {
+    private static final long MB = 1024 * 1024;
+
+    private final List<CompletableFuture<About>> quotaRequests = new ArrayList<>();
+    private final RecordingProgressStatusFactory progressStatusFactory = new RecordingProgressStatusFactory();
+    @Mock
+    private GoogleDriveClient googleDriveClient;
+    @Mock
+    private GoogleDrivePath appDataFolder;
+    @Mock
+    private GoogleDrivePath refreshFile;
+    @Mock
+    private PreferencesManager preferencesManager;
+    private volatile Instant currentInstant;
+    private DriveSpaceTrackerImpl tracker;
+
+    @BeforeEach
+    void setUp() {
+        currentInstant = EPOCH;
+        when(googleDriveClient.getAppDataFolder(any())).thenReturn(appDataFolder);
+        when(appDataFolder.createFile(anyString(), anyString(), any())).thenAnswer(invocation -> CompletableFuture.completedFuture(refreshFile));
+        when(refreshFile.delete()).thenAnswer(invocation -> CompletableFuture.completedFuture(null));
+        when(googleDriveClient.aboutDrive(any(), any())).thenAnswer(invocation -> {
+            var quotaRequest = new CompletableFuture<About>();
+            quotaRequests.add(quotaRequest);
+            return quotaRequest;
+        });
+        tracker = new DriveSpaceTrackerImpl(
+                progressStatusFactory,
+                googleDriveClient,
+                preferencesManager,
+                RESOURCE_BUNDLE,
+                new AsyncOperationRetry() {
+                    @Override
+                    public <T> CompletableFuture<T> withBackOffAndRetry(String operationName,
+                                                                        Supplier<? extends CompletableFuture<T>> action,
+                                                                        LongConsumer backoffEventConsumer) {
+                        return action.get();
+                    }
+                },
+                new CurrentDateTimeProvider() {
+                    @Override
+                    public LocalDateTime currentDateTime() {
+                        return LocalDateTime.ofInstant(currentInstant(), ZoneOffset.UTC);
+                    }
+
+                    @Override
+                    public Instant currentInstant() {
+                        return currentInstant;
+                    }
+                });
+        tracker.start();
+    }
+
+    @AfterEach
+    void tearDown() {
+        tracker.stop();
+    }
+
+    @Test
+    void failsUploadOnceEstimatedUsageReachesMaxUsedPercentage() {
+        givenFailOnDriveSpace(FailOnDriveSpaceOption.builder().setMaxUsedPercentage(95.0).build());
+        resetWithQuota(1000 * MB, 900 * MB);
+
+        tracker.beforeUpload();
+        tracker.afterUpload(49 * MB);
+        tracker.beforeUpload();
+        tracker.afterUpload(MB);
+
+        var exception = assertThrows(IllegalStateException.class, tracker::beforeUpload);
+        assertThat(exception.getMessage(), is(String.format(RESOURCE_BUNDLE.getString("driveSpaceMaxUsedPercentageViolated"), 95.0)));
+    }
+
+    @Test
+    void comparesUsedPercentageWithoutRoundingItDown() {
+        givenFailOnDriveSpace(FailOnDriveSpaceOption.builder().setMaxUsedPercentage(99.5).build());
+        resetWithQuota(1000 * MB, 994 * MB);
+
+        tracker.beforeUpload();
+        tracker.afterUpload(MB);
+
+        assertThrows(IllegalStateException.class, tracker::beforeUpload);
+    }
+
+    @Test
+    void failsUploadOnceEstimatedFreeSpaceReachesMinimum() {
+        givenFailOnDriveSpace(FailOnDriveSpaceOption.builder().setMinFreeMegabytes(10).build());
+        resetWithQuota(100 * MB, 89 * MB);
+
+        tracker.afterUpload(MB / 2);
+        tracker.beforeUpload();
+        tracker.afterUpload(MB / 2);
+
+        var exception = assertThrows(IllegalStateException.class, tracker::beforeUpload);
+        assertThat(exception.getMessage(), is(String.format(RESOURCE_BUNDLE.getString("driveSpaceMinFreeSpaceViolated"), 10)));
+    }
+
+    @Test
+    void refreshesUsageAfterEnoughDataAtMostOncePerInterval() {
+        resetWithQuota(1000 * MB, 100 * MB);
+
+        tracker.afterUpload(60 * MB);
+        assertThat("refreshed again within the interval", quotaRequests, hasSize(1));
+
+        currentInstant = currentInstant.plus(Duration.ofMinutes(1));
+        tracker.afterUpload(MB);
+        assertThat(quotaRequests, hasSize(2));
+
+        currentInstant = currentInstant.plus(Duration.ofMinutes(1));
+        tracker.afterUpload(60 * MB);
+        assertThat("refreshed again while a refresh is in progress", quotaRequests, hasSize(2));
+
+        completeLastQuotaRequest(1000 * MB, 161 * MB);
+        tracker.afterUpload(MB);
+        assertThat(quotaRequests, hasSize(3));
+
+        completeLastQuotaRequest(1000 * MB, 222 * MB);
+        currentInstant = currentInstant.plus(Duration.ofMinutes(1));
+        tracker.afterUpload(MB);
+        assertThat("refreshed again before enough data was uploaded", quotaRequests, hasSize(3));
+
+        tracker.afterUpload(50 * MB);
+        assertThat(quotaRequests, hasSize(4));
+    }
+
+    @Test
+    void keepsBytesUploadedWhileUsageIsMeasuredInEstimate() {
+        givenFailOnDriveSpace(FailOnDriveSpaceOption.builder().setMinFreeMegabytes(10).build());
+        resetWithQuota(100 * MB, 0);
+
+        currentInstant = currentInstant.plus(Duration.ofMinutes(1));
+        tracker.afterUpload(60 * MB);
+        assertThat(quotaRequests, hasSize(2));
+        tracker.afterUpload(20 * MB);
+
+        // measured usage includes the 60 MB uploaded before the refresh, but not the 20 MB uploaded during it
+        completeLastQuotaRequest(100 * MB, 60 * MB);
+        tracker.beforeUpload();
+        tracker.afterUpload(10 * MB);
+
+        assertThrows(IllegalStateException.class, tracker::beforeUpload);
+    }
+
+    @Test
+    void showsMeasuredUsageInStatus() {
+        resetWithQuota(1000 * MB, 100 * MB);
+
+        var status = progressStatusFactory.getStatusByName().get(RESOURCE_BUNDLE.getString("driveSpaceStatusTitle"));
+        assertThat(status.getTotalCount(), optionalWithValue(is(1000)));
+        assertThat(status.getSuccessCount(), is(100));
+    }
+
+    private void givenFailOnDriveSpace(FailOnDriveSpaceOption option) {
+        when(preferencesManager.get()).thenReturn(Preferences.builder().setFailOnDriveSpace(option).build());
+    }
+
+    private void resetWithQuota(long limit, long usage) {
+        var resetFuture = tracker.reset();
+        completeLastQuotaRequest(limit, usage);
+        resetFuture.join();
+    }
+
+    private void completeLastQuotaRequest(long limit, long usage) {
+        quotaRequests.get(quotaRequests.size() - 1).complete(new About().setStorageQuota(new About.StorageQuota()
+                .setLimit(limit)
+                .setUsage(usage)));
+    }
+}
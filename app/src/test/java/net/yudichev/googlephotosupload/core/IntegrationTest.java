@@ -34,11 +34,14 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.SimpleFileVisitor;
 import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
 import java.time.Duration;
 import java.time.Instant;
 import java.util.Map;
 import java.util.Optional;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BooleanSupplier;
 import java.util.stream.IntStream;
 
 import static com.google.common.collect.ImmutableList.toImmutableList;
@@ -472,6 +475,40 @@ final class IntegrationTest {
         googlePhotosClient.getAllItems().forEach(mediaItem -> assertThat(mediaItem.getUploadCount(), is(2)));
     }
 
+    @Test
+    void lazyUploadStateDoesNotReUploadPreviouslyUploadedFiles() throws Exception {
+        modifyPreferences(preferences -> preferences.withLazyUploadState(true));
+        createStandardTestFiles();
+        doUploadTest();
+        getLastFailure().ifPresent(Assertions::fail);
+
+        doUploadTest();
+
+        getLastFailure().ifPresent(Assertions::fail);
+        assertNoRecordedProgressErrors();
+
+        googlePhotosClient.getAllItems().forEach(mediaItem -> assertThat(mediaItem.getUploadCount(), is(1)));
+    }
+
+    @Test
+    void movedFileIsNotReUploadedWhenDeduplicatingByContent() throws Exception {
+        modifyPreferences(preferences -> preferences.withDeduplicateByContent(true));
+        var originalDir = uploadRoot.resolve("original-album");
+        Files.createDirectories(originalDir);
+        writeMediaFile(originalDir.resolve("photo.jpg"));
+        doExecuteUpload();
+        getLastFailure().ifPresent(Assertions::fail);
+
+        Files.move(originalDir, uploadRoot.resolve("renamed-album"));
+        doExecuteUpload();
+
+        getLastFailure().ifPresent(Assertions::fail);
+        assertNoRecordedProgressErrors();
+        var mediaItem = getOnlyElement(googlePhotosClient.getAllItems());
+        assertThat(mediaItem.getUploadCount(), is(1));
+        assertThat(mediaItem.getAlbumIds(), hasSize(2));
+    }
+
     @Test
     void forgettingUploadStateReUploadsExistingFile() throws Exception {
         IntegrationTestUploadStarter.forgetUploadStateOnShutdown();
@@ -647,6 +684,35 @@ final class IntegrationTest {
                 itemForFile(file3)));
     }
 
+    @Test
+    void inSortedModeKeepsCreationTimeOrderAcrossMoreThanBatchSizeItemsInDirectory() throws Exception {
+        modifyPreferences(preferences -> preferences.withAddToAlbumStrategy(AFTER_CREATING_ITEMS_SORTED));
+
+        var albumPath = uploadRoot.resolve("albumWithManySortedFiles").toAbsolutePath();
+        Files.createDirectory(albumPath);
+        var fileCount = GOOGLE_PHOTOS_API_BATCH_SIZE + 10;
+        // file names in the reverse order of creation time
+        var filesInCreationTimeOrder = IntStream.range(0, fileCount)
+                .mapToObj(i -> albumPath.resolve(String.format("file%03d.jpg", fileCount - i)))
+                .collect(toImmutableList());
+        for (var i = 0; i < fileCount; i++) {
+            writeMediaFile(filesInCreationTimeOrder.get(i), MediaItemContents.of(Instant.ofEpochMilli(i), uniqueData()));
+        }
+
+        doExecuteUpload();
+
+        getLastFailure().ifPresent(Assertions::fail);
+        assertNoRecordedProgressErrors();
+
+        var album = (Album) googlePhotosClient.getAllAlbums().stream()
+                .filter(createdGooglePhotosAlbum -> "albumWithManySortedFiles".equals(createdGooglePhotosAlbum.getTitle()))
+                .findFirst()
+                .orElseThrow(() -> new IllegalArgumentException("Could not find album 'albumWithManySortedFiles'"));
+        assertThat(album.getItems(), contains(filesInCreationTimeOrder.stream()
+                .map(IntegrationTest::itemForFile)
+                .collect(toImmutableList())));
+    }
+
     @Test
     void inRegularModeSortsByFilename() throws Exception {
         var albumWithSortedFilesPath = uploadRoot.resolve("albumWithSortedFiles").toAbsolutePath();
@@ -782,6 +848,120 @@ final class IntegrationTest {
         ));
     }
 
+    @Test
+    void incrementalScanDoesNotListUnchangedDirectory() throws Exception {
+        var albumDir = createIncrementallyScannedAlbum("album");
+        doExecuteUpload();
+        getLastFailure().ifPresent(Assertions::fail);
+
+        var newPhoto = addFileKeepingModificationTime(albumDir, "new-photo.jpg");
+        doExecuteUpload();
+
+        getLastFailure().ifPresent(Assertions::fail);
+        assertNoRecordedProgressErrors();
+        assertThat(googlePhotosClient.getAllItems(), not(hasItem(itemForFile(newPhoto))));
+    }
+
+    @Test
+    void incrementalScanListsModifiedDirectory() throws Exception {
+        var albumDir = createIncrementallyScannedAlbum("album");
+        doExecuteUpload();
+        getLastFailure().ifPresent(Assertions::fail);
+
+        var newPhoto = albumDir.resolve("new-photo.jpg");
+        writeMediaFile(newPhoto);
+        Files.setLastModifiedTime(albumDir, FileTime.from(now().minus(Duration.ofMinutes(30))));
+        doExecuteUpload();
+
+        getLastFailure().ifPresent(Assertions::fail);
+        assertNoRecordedProgressErrors();
+        assertThat(googlePhotosClient.getAllItems(), hasItem(itemForFile(newPhoto)));
+    }
+
+    @Test
+    void incrementalScanListsUnchangedDirectoryAgainIfAlbumSettingsChanged() throws Exception {
+        var albumDir = createIncrementallyScannedAlbum("album");
+        doExecuteUpload();
+        getLastFailure().ifPresent(Assertions::fail);
+
+        var newPhoto = addFileKeepingModificationTime(albumDir, "new-photo.jpg");
+        modifyPreferences(preferences -> preferences.withAlbumDelimiter(" - "));
+        doExecuteUpload();
+
+        getLastFailure().ifPresent(Assertions::fail);
+        assertNoRecordedProgressErrors();
+        assertThat(googlePhotosClient.getAllItems(), hasItem(itemForFile(newPhoto)));
+    }
+
+    @Test
+    void incrementalScanListsUnchangedDirectoryAgainIfItsItemsWereNotAddedToAlbum() throws Exception {
+        googlePhotosClient.createNonWritableAlbum("pre-existing-not-writable-album");
+        var albumDir = createIncrementallyScannedAlbum("pre-existing-not-writable-album");
+        doExecuteUpload();
+        getLastFailure().ifPresent(Assertions::fail);
+        assertThat(progressStatusFactory.getRecordedErrorsByProgressName(), hasKey("Uploading media files"));
+
+        var newPhoto = addFileKeepingModificationTime(albumDir, "new-photo.jpg");
+        doExecuteUpload();
+
+        getLastFailure().ifPresent(Assertions::fail);
+        assertThat(googlePhotosClient.getAllItems(), hasItem(itemForFile(newPhoto)));
+    }
+
+    @Test
+    void startsUploadingDirectoriesBeforeScanFinishes() throws Exception {
+        var rootPhoto = uploadRoot.resolve("root-photo.jpg");
+        writeMediaFile(rootPhoto);
+        var albumDir = uploadRoot.resolve("album");
+        Files.createDirectories(albumDir);
+        var albumPhoto = albumDir.resolve("album-photo.jpg");
+        writeMediaFile(albumPhoto);
+        var rootPhotoUploadedWhileScanning = new AtomicBoolean();
+        // the root directory is handed over before its subdirectories are listed, so hold the scan until its photo is uploaded
+        progressStatusFactory.onDescriptionUpdate((progressName, description) -> {
+            if (progressName.equals("Looking for files") && description.endsWith("album-photo.jpg")) {
+                rootPhotoUploadedWhileScanning.set(waitFor(() -> googlePhotosClient.isMediaDataUploaded(rootPhoto)));
+            }
+        });
+
+        doExecuteUpload();
+
+        getLastFailure().ifPresent(Assertions::fail);
+        assertNoRecordedProgressErrors();
+        assertThat(rootPhotoUploadedWhileScanning.get(), is(true));
+        assertThat(googlePhotosClient.getAllItems(), containsInAnyOrder(itemForFile(rootPhoto), itemForFile(albumPhoto)));
+    }
+
+    @Test
+    void failedDirectoryUploadCancelsScan() throws Exception {
+        var failOnMeAlbumDir = uploadRoot.resolve("failOnMe");
+        Files.createDirectories(failOnMeAlbumDir);
+        writeMediaFile(failOnMeAlbumDir.resolve("photo.jpg"));
+        var laterAlbumDir = failOnMeAlbumDir.resolve("later");
+        Files.createDirectories(laterAlbumDir);
+        writeMediaFile(laterAlbumDir.resolve("later-photo.jpg"));
+        var scanHeldUntilTimeout = new AtomicBoolean();
+        // failOnMe is handed over before its subdirectory is listed, so if the scan gets that far, hold it until the failure of the album
+        // creation cancels it
+        progressStatusFactory.onDescriptionUpdate((progressName, description) -> {
+            if (progressName.equals("Looking for files") && description.endsWith("later-photo.jpg")) {
+                scanHeldUntilTimeout.set(!waitFor(() -> progressStatusFactory.getStatusByName().get("Looking for files")
+                        .getClosedWithSuccess()
+                        .isPresent()));
+            }
+        });
+
+        doExecuteUpload();
+
+        assertThat(getLastFailure(), optionalWithValue());
+        assertThat(scanHeldUntilTimeout.get(), is(false));
+        assertThat(progressStatusFactory.getStatusByName().get("Looking for files").getClosedWithSuccess(),
+                optionalWithValue(equalTo(false)));
+        assertThat(progressStatusFactory.getStatusByName().get("Uploading media files").getTotalCount(), optionalWithValue(equalTo(1)));
+        assertThat(googlePhotosClient.getAllAlbums(), is(empty()));
+        assertThat(googlePhotosClient.getAllItems(), is(empty()));
+    }
+
     @Test
     void failsUploadIfDriveSpaceRefreshFails() throws InterruptedException {
         var details = new GoogleJsonError();
@@ -843,6 +1023,41 @@ final class IntegrationTest {
         writeMediaFile(innerAlbumPhoto);
     }
 
+    /**
+     * Manifests are only taken of directories not modified recently by the test clock, so the clock is moved to the present and the directories
+     * to the past.
+     */
+    private Path createIncrementallyScannedAlbum(String name) throws IOException {
+        modifyPreferences(preferences -> preferences.withIncrementalScan(true));
+        TestTimeModule.advanceTimeBy(Duration.between(EPOCH, now()));
+        var albumDir = uploadRoot.resolve(name);
+        Files.createDirectory(albumDir);
+        writeMediaFile(albumDir.resolve("photo.jpg"));
+        var longAgo = FileTime.from(now().minus(Duration.ofHours(1)));
+        Files.setLastModifiedTime(albumDir, longAgo);
+        Files.setLastModifiedTime(uploadRoot, longAgo);
+        return albumDir;
+    }
+
+    private static boolean waitFor(BooleanSupplier condition) {
+        var deadline = now().plusSeconds(3);
+        while (!condition.getAsBoolean()) {
+            if (now().isAfter(deadline)) {
+                return false;
+            }
+            asUnchecked(() -> Thread.sleep(10));
+        }
+        return true;
+    }
+
+    private static Path addFileKeepingModificationTime(Path dir, String fileName) throws IOException {
+        var lastModifiedTime = Files.getLastModifiedTime(dir);
+        var file = dir.resolve(fileName);
+        writeMediaFile(file);
+        Files.setLastModifiedTime(dir, lastModifiedTime);
+        return file;
+    }
+
     private void assertNoRecordedProgressErrors() {
         progressStatusFactory.getRecordedErrorsByProgressName().values().forEach(keyedErrors -> assertThat(keyedErrors, is(empty())));
     }
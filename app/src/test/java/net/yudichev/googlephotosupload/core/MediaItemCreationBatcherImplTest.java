@@ -0,0 +1,200 @@
+package net.yudichev.googlephotosupload.core;
+
+import com.google.rpc.Code;
+import com.google.rpc.Status;
+import net.yudichev.jiotty.connector.google.photos.GoogleMediaItem;
+import net.yudichev.jiotty.connector.google.photos.GooglePhotosClient;
+import net.yudichev.jiotty.connector.google.photos.MediaItemOrError;
+import net.yudichev.jiotty.connector.google.photos.NewMediaItem;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.time.Duration;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.LongConsumer;
+import java.util.function.Supplier;
+import java.util.stream.IntStream;
+
+import static com.google.common.collect.ImmutableList.toImmutableList;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static net.yudichev.googlephotosupload.core.GooglePhotosUploaderImpl.GOOGLE_PHOTOS_API_BATCH_SIZE;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.lenient;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class MediaItemCreationBatcherImplTest {
+    private static final Optional<String> ALBUM_ID = Optional.of("albumId");
+
+    private final List<List<NewMediaItem>> sentBatches = new CopyOnWriteArrayList<>();
+    private final Set<String> tokensFailingOnce = new HashSet<>();
+    private final Set<String> tokensFailingAlways = new HashSet<>();
+    @Mock
+    private GooglePhotosClient googlePhotosClient;
+    private ApiOperationRetry apiOperationRetry;
+
+    @BeforeEach
+    void setUp() {
+        apiOperationRetry = new ApiOperationRetry() {
+            @Override
+            public <T> CompletableFuture<T> withBackOffAndRetry(ApiOperationClass operationClass,
+                                                                String operationName,
+                                                                Executor executor,
+                                                                Supplier<? extends CompletableFuture<T>> action,
+                                                                LongConsumer backoffEventConsumer) {
+                return action.get();
+            }
+        };
+    }
+
+    @Test
+    void combinesRequestsToSameAlbumIntoOneCallAndCompletesEachOnItsOwnExecutor() {
+        givenClientCreatesItems();
+        var batcher = batcherWithMaxDelay(Duration.ofHours(1));
+        var executor1 = new RecordingExecutor();
+        var executor2 = new RecordingExecutor();
+        var items1 = newMediaItems("dir1-", 20);
+        var items2 = newMediaItems("dir2-", GOOGLE_PHOTOS_API_BATCH_SIZE - 20);
+
+        var future1 = batcher.createMediaItems(ALBUM_ID, items1, executor1, backOffMs -> {});
+        assertThat(sentBatches, is(empty()));
+        var future2 = batcher.createMediaItems(ALBUM_ID, items2, executor2, backOffMs -> {});
+
+        assertThat(sentBatches, hasSize(1));
+        assertThat(sentBatches.get(0), hasSize(GOOGLE_PHOTOS_API_BATCH_SIZE));
+        assertThat(createdTokens(future1.join()), is(tokensOf(items1)));
+        assertThat(createdTokens(future2.join()), is(tokensOf(items2)));
+        assertThat(executor1.executionCount.get(), is(1));
+        assertThat(executor2.executionCount.get(), is(1));
+    }
+
+    @Test
+    void sendsPartialBatchAfterMaxDelay() throws Exception {
+        givenClientCreatesItems();
+        var batcher = batcherWithMaxDelay(Duration.ofMillis(50));
+        var items = newMediaItems("dir-", 3);
+
+        var results = batcher.createMediaItems(ALBUM_ID, items, Runnable::run, backOffMs -> {}).get(5, SECONDS);
+
+        assertThat(createdTokens(results), is(tokensOf(items)));
+        assertThat(sentBatches, hasSize(1));
+    }
+
+    @Test
+    void retriesOnlyItemsThatFailedInCombinedBatch() {
+        givenClientCreatesItems();
+        var batcher = batcherWithMaxDelay(Duration.ofHours(1));
+        var items1 = newMediaItems("dir1-", 25);
+        var items2 = newMediaItems("dir2-", 25);
+        tokensFailingOnce.add("dir1-3");
+        tokensFailingOnce.add("dir2-7");
+
+        var future1 = batcher.createMediaItems(ALBUM_ID, items1, Runnable::run, backOffMs -> {});
+        var future2 = batcher.createMediaItems(ALBUM_ID, items2, Runnable::run, backOffMs -> {});
+
+        assertThat(sentBatches, hasSize(2));
+        assertThat(tokensOf(sentBatches.get(1)), contains("dir1-3", "dir2-7"));
+        assertThat(createdTokens(future1.join()), is(tokensOf(items1)));
+        assertThat(createdTokens(future2.join()), is(tokensOf(items2)));
+    }
+
+    @Test
+    void keepsErrorsOfItemsThatFailAgain() {
+        givenClientCreatesItems();
+        var batcher = batcherWithMaxDelay(Duration.ofHours(1));
+        var items1 = newMediaItems("dir1-", 25);
+        var items2 = newMediaItems("dir2-", 25);
+        tokensFailingAlways.add("dir2-0");
+
+        batcher.createMediaItems(ALBUM_ID, items1, Runnable::run, backOffMs -> {});
+        var results2 = batcher.createMediaItems(ALBUM_ID, items2, Runnable::run, backOffMs -> {}).join();
+
+        assertThat(sentBatches, hasSize(2));
+        assertThat(results2.get(0).errorStatus().isPresent(), is(true));
+        assertThat(results2.stream().skip(1).allMatch(result -> result.item().isPresent()), is(true));
+    }
+
+    @Test
+    void failsAllRequestsOfFailedCombinedCallWithoutSendingThemAgain() {
+        when(googlePhotosClient.createMediaItems(any(), any(), any())).thenAnswer(invocation -> {
+            sentBatches.add(invocation.getArgument(1));
+            return CompletableFuture.failedFuture(new RuntimeException("oops"));
+        });
+        var batcher = batcherWithMaxDelay(Duration.ofHours(1));
+
+        var future1 = batcher.createMediaItems(ALBUM_ID, newMediaItems("dir1-", 25), Runnable::run, backOffMs -> {});
+        var future2 = batcher.createMediaItems(ALBUM_ID, newMediaItems("dir2-", 25), Runnable::run, backOffMs -> {});
+
+        assertThat(future1.isCompletedExceptionally(), is(true));
+        assertThat(future2.isCompletedExceptionally(), is(true));
+        assertThat(sentBatches, hasSize(1));
+    }
+
+    private MediaItemCreationBatcherImpl batcherWithMaxDelay(Duration maxBatchDelay) {
+        return new MediaItemCreationBatcherImpl(googlePhotosClient, apiOperationRetry, maxBatchDelay);
+    }
+
+    private void givenClientCreatesItems() {
+        when(googlePhotosClient.createMediaItems(any(), any(), any())).thenAnswer(invocation -> {
+            List<NewMediaItem> newMediaItems = invocation.getArgument(1);
+            sentBatches.add(newMediaItems);
+            return CompletableFuture.completedFuture(newMediaItems.stream()
+                    .map(newMediaItem -> tokensFailingAlways.contains(newMediaItem.uploadToken()) ||
+                            tokensFailingOnce.remove(newMediaItem.uploadToken()) ?
+                            MediaItemOrError.error(Status.newBuilder()
+                                    .setCode(Code.ALREADY_EXISTS_VALUE)
+                                    .setMessage("failed")
+                                    .build()) :
+                            MediaItemOrError.item(mediaItem(newMediaItem.uploadToken())))
+                    .collect(toImmutableList()));
+        });
+    }
+
+    private static GoogleMediaItem mediaItem(String id) {
+        var mediaItem = mock(GoogleMediaItem.class);
+        lenient().when(mediaItem.getId()).thenReturn(id);
+        return mediaItem;
+    }
+
+    private static List<NewMediaItem> newMediaItems(String tokenPrefix, int count) {
+        return IntStream.range(0, count)
+                .mapToObj(i -> NewMediaItem.builder()
+                        .setUploadToken(tokenPrefix + i)
+                        .setFileName(tokenPrefix + i + ".jpg")
+                        .build())
+                .collect(toImmutableList());
+    }
+
+    private static List<String> tokensOf(List<NewMediaItem> newMediaItems) {
+        return newMediaItems.stream().map(NewMediaItem::uploadToken).collect(toImmutableList());
+    }
+
+    private static List<String> createdTokens(List<MediaItemOrError> results) {
+        return results.stream()
+                .map(result -> result.item().map(GoogleMediaItem::getId).orElse("<error>"))
+                .collect(toImmutableList());
+    }
+
+    private static final class RecordingExecutor implements Executor {
+        private final AtomicInteger executionCount = new AtomicInteger();
+
+        @Override
+        public void execute(Runnable command) {
+            executionCount.incrementAndGet();
+            command.run();
+        }
+    }
+}
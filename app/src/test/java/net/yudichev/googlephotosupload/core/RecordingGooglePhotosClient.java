@@ -201,6 +201,13 @@ final class RecordingGooglePhotosClient implements GooglePhotosClient {
         }
     }
 
+    boolean isMediaDataUploaded(Path file) {
+        var uploadTokenPrefix = file.toAbsolutePath().toString() + '_';
+        synchronized (lock) {
+            return binariesByUploadToken.keySet().stream().anyMatch(uploadToken -> uploadToken.startsWith(uploadTokenPrefix));
+        }
+    }
+
     Collection<MediaItem> getAllItems() {
         synchronized (lock) {
             return ImmutableList.copyOf(itemsById.values());
@@ -8,8 +8,10 @@ import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BiConsumer;
 
 import static com.google.common.base.Preconditions.checkNotNull;
 import static com.google.common.base.Preconditions.checkState;
@@ -19,10 +21,11 @@ import static net.yudichev.jiotty.common.lang.Locks.inLock;
 
 final class RecordingProgressStatusFactory implements ProgressStatusFactory {
     private final Map<String, RecordingProgressStatus> statusByName = new ConcurrentHashMap<>();
+    private final AtomicReference<BiConsumer<String, String>> descriptionListener = new AtomicReference<>((name, description) -> {});
 
     @Override
     public ProgressStatus create(String name, Optional<Integer> totalCount) {
-        var status = new RecordingProgressStatus(name, totalCount);
+        var status = new RecordingProgressStatus(name, totalCount, descriptionListener);
         checkState(statusByName.put(name, status) == null, "status already created for %s", name);
         return status;
     }
@@ -41,20 +44,31 @@ final class RecordingProgressStatusFactory implements ProgressStatusFactory {
         statusByName.clear();
     }
 
+    /**
+     * @param listener called with the progress name and the new description on the thread that updates it, e.g. to hold a scan at a given file
+     */
+    public void onDescriptionUpdate(BiConsumer<String, String> listener) {
+        descriptionListener.set(checkNotNull(listener));
+    }
+
     static final class RecordingProgressStatus implements ProgressStatus {
         private static final Logger logger = LoggerFactory.getLogger(RecordingProgressStatus.class);
 
         private final Lock lock = new ReentrantLock();
         private final Set<KeyedError> recordedErrors = new HashSet<>();
         private final String name;
+        private final AtomicReference<BiConsumer<String, String>> descriptionListener;
         private Optional<Integer> totalCount;
         private int successCount;
         private String description;
         private Optional<Boolean> closedWithSuccess = Optional.empty();
 
-        private RecordingProgressStatus(String name, Optional<Integer> totalCount) {
+        private RecordingProgressStatus(String name,
+                                        Optional<Integer> totalCount,
+                                        AtomicReference<BiConsumer<String, String>> descriptionListener) {
             this.name = checkNotNull(name);
             this.totalCount = checkNotNull(totalCount);
+            this.descriptionListener = checkNotNull(descriptionListener);
         }
 
         @Override
@@ -79,6 +93,7 @@ final class RecordingProgressStatusFactory implements ProgressStatusFactory {
                 description = newValue;
                 logger.debug("{}: updateDescription->{}", name, newValue);
             });
+            descriptionListener.get().accept(name, newValue);
         }
 
         @Override
@@ -0,0 +1,47 @@
+package net.yudichev.googlephotosupload.core;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+class TokenBucketTest {
+    private long nanoTime;
+    private TokenBucket bucket;
+
+    @BeforeEach
+    void setUp() {
+        nanoTime = 1_000;
+        bucket = new TokenBucket(10, () -> nanoTime);
+    }
+
+    @Test
+    void allowsBurstOfCapacityThenSpacesOutReservations() {
+        for (var i = 0; i < 10; i++) {
+            assertThat(bucket.reserve(), is(0L));
+        }
+        assertThat(bucket.reserve(), is(100L));
+        assertThat(bucket.reserve(), is(200L));
+    }
+
+    @Test
+    void refillsOverTimeUpToCapacity() {
+        for (var i = 0; i < 11; i++) {
+            bucket.reserve();
+        }
+        advanceMillis(150);
+        assertThat(bucket.reserve(), is(50L));
+
+        advanceMillis(10_000);
+        for (var i = 0; i < 10; i++) {
+            assertThat(bucket.reserve(), is(0L));
+        }
+        assertThat(bucket.reserve(), is(100L));
+    }
+
+    private void advanceMillis(long millis) {
+        nanoTime += MILLISECONDS.toNanos(millis);
+    }
+}
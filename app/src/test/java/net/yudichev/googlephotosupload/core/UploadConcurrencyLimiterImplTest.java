@@ -0,0 +1,167 @@
+package net.yudichev.googlephotosupload.core;
+
+import net.yudichev.jiotty.common.time.CurrentDateTimeProvider;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static java.time.Instant.EPOCH;
+import static net.yudichev.googlephotosupload.core.ResourceBundleModule.RESOURCE_BUNDLE;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.atLeastOnce;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class UploadConcurrencyLimiterImplTest {
+    @Mock
+    private PreferencesManager preferencesManager;
+    @Mock
+    private ProgressStatusFactory progressStatusFactory;
+    @Mock
+    private ProgressStatus progressStatus;
+    private Instant currentInstant;
+    private UploadConcurrencyLimiterImpl limiter;
+
+    @BeforeEach
+    void setUp() {
+        currentInstant = EPOCH;
+        when(preferencesManager.get()).thenReturn(Preferences.builder()
+                .setUploadConcurrency(8)
+                .setAdaptiveUploadConcurrency(true)
+                .build());
+        when(progressStatusFactory.create(anyString(), any())).thenReturn(progressStatus);
+        limiter = new UploadConcurrencyLimiterImpl(preferencesManager, new CurrentDateTimeProvider() {
+            @Override
+            public LocalDateTime currentDateTime() {
+                return LocalDateTime.ofInstant(currentInstant(), ZoneOffset.UTC);
+            }
+
+            @Override
+            public Instant currentInstant() {
+                return currentInstant;
+            }
+        }, progressStatusFactory, RESOURCE_BUNDLE);
+        limiter.reset();
+    }
+
+    @Test
+    void startsWithOneUploadAndIncreasesWhileThroughputGrows() {
+        var startedUploads = new AtomicInteger();
+        startUploads(3, startedUploads);
+        assertThat(startedUploads.get(), is(1));
+
+        completeWindow(1000);
+        assertThat(lastReportedLimit(), is(2));
+        assertThat(startedUploads.get(), is(2));
+
+        completeWindow(2000);
+        assertThat(lastReportedLimit(), is(3));
+        assertThat(startedUploads.get(), is(3));
+    }
+
+    @Test
+    void holdsWhenIncreaseDoesNotImproveThroughput() {
+        completeWindow(1000);
+        assertThat(lastReportedLimit(), is(2));
+
+        completeWindow(1000);
+        assertThat(lastReportedLimit(), is(2));
+
+        // does not probe again for a while
+        for (var i = 0; i < 6; i++) {
+            completeWindow(10_000 * (i + 1));
+            assertThat(lastReportedLimit(), is(2));
+        }
+        completeWindow(100_000);
+        assertThat(lastReportedLimit(), is(3));
+    }
+
+    @Test
+    void halvesOnThrottlingOnceWithinCooldown() {
+        completeWindow(1000);
+        completeWindow(2000);
+        completeWindow(3000);
+        completeWindow(4000);
+        assertThat(lastReportedLimit(), is(5));
+
+        limiter.onThrottled();
+        assertThat(lastReportedLimit(), is(2));
+
+        currentInstant = currentInstant.plus(Duration.ofSeconds(9));
+        limiter.onThrottled();
+        assertThat(lastReportedLimit(), is(2));
+
+        currentInstant = currentInstant.plus(Duration.ofSeconds(1));
+        limiter.onThrottled();
+        assertThat(lastReportedLimit(), is(1));
+
+        limiter.onThrottled();
+        currentInstant = currentInstant.plus(Duration.ofSeconds(10));
+        limiter.onThrottled();
+        assertThat(lastReportedLimit(), is(1));
+    }
+
+    @Test
+    void permitIsHeldPerUploadNotPerThread() {
+        var firstUpload = new CompletableFuture<String>();
+        var nestedUploadStarted = new AtomicInteger();
+        limiter.withPermit(() -> {
+            limiter.withPermit(() -> {
+                nestedUploadStarted.incrementAndGet();
+                return new CompletableFuture<String>();
+            });
+            return firstUpload;
+        });
+        assertThat(nestedUploadStarted.get(), is(0));
+
+        firstUpload.complete("token");
+        assertThat(nestedUploadStarted.get(), is(1));
+    }
+
+    @Test
+    void releasesPermitIfUploadFailsToStart() {
+        var failedUpload = limiter.<String>withPermit(() -> {
+            throw new IllegalStateException("no space");
+        });
+        assertThat(failedUpload.isCompletedExceptionally(), is(true));
+
+        var startedUploads = new AtomicInteger();
+        startUploads(1, startedUploads);
+        assertThat(startedUploads.get(), is(1));
+    }
+
+    private void startUploads(int count, AtomicInteger startedUploads) {
+        for (var i = 0; i < count; i++) {
+            limiter.withPermit(() -> {
+                startedUploads.incrementAndGet();
+                return new CompletableFuture<String>();
+            });
+        }
+    }
+
+    private void completeWindow(long bytes) {
+        currentInstant = currentInstant.plus(Duration.ofSeconds(20));
+        limiter.onUploaded(bytes);
+    }
+
+    private int lastReportedLimit() {
+        var captor = ArgumentCaptor.forClass(Integer.class);
+        verify(progressStatus, atLeastOnce()).updateSuccess(captor.capture());
+        var values = captor.getAllValues();
+        return values.get(values.size() - 1);
+    }
+}
@@ -0,0 +1,149 @@
+package net.yudichev.googlephotosupload.core;
+
+import net.yudichev.jiotty.common.varstore.VarStore;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.nio.file.Path;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.time.Duration;
+
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static net.yudichev.googlephotosupload.core.OptionalMatchers.optionalWithValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+@ExtendWith(MockitoExtension.class)
+class UploadStateManagerImplTest {
+    @TempDir
+    Path tempDir;
+    @Mock
+    private VarStore varStore;
+    private Path dbPath;
+    private Path albumDir;
+    private UploadStateManagerImpl stateManager;
+
+    @BeforeEach
+    void setUp() {
+        dbPath = tempDir.resolve("state");
+        albumDir = tempDir.resolve("album").toAbsolutePath();
+    }
+
+    @AfterEach
+    void tearDown() {
+        if (stateManager != null) {
+            stateManager.stop();
+        }
+    }
+
+    @Test
+    void writesBatchOnceFull() throws Exception {
+        start(StateWriteBehindSettings.builder().setMaxBatchSize(3).setMaxDelay(Duration.ofHours(1)).build());
+
+        saveItemStates(2);
+        assertThat(committedItemCount(), is(0));
+
+        stateManager.saveItemState(albumDir.resolve("3.jpg"), ItemState.builder().setMediaId("3").build());
+        assertThat(committedItemCount(), is(3));
+    }
+
+    @Test
+    void writesPartialBatchAfterDelay() throws Exception {
+        start(StateWriteBehindSettings.builder().setMaxBatchSize(100).setMaxDelay(Duration.ofMillis(50)).build());
+
+        saveItemStates(1);
+
+        var deadline = System.nanoTime() + SECONDS.toNanos(5);
+        while (committedItemCount() == 0 && System.nanoTime() < deadline) {
+            //noinspection BusyWait
+            Thread.sleep(10);
+        }
+        assertThat(committedItemCount(), is(1));
+    }
+
+    @Test
+    void writesPendingStatesOfDirectoryBeforeReadingIt() throws Exception {
+        start(StateWriteBehindSettings.builder().setMaxBatchSize(100).setMaxDelay(Duration.ofHours(1)).build());
+        saveItemStates(2);
+
+        var otherDirStates = stateManager.loadItemStatesInDirectory(tempDir.resolve("other"));
+        assertThat(otherDirStates.entrySet(), is(empty()));
+        assertThat(committedItemCount(), is(0));
+
+        var albumDirStates = stateManager.loadItemStatesInDirectory(albumDir);
+        assertThat(albumDirStates.keySet(), containsInAnyOrder(albumDir.resolve("1.jpg").toString(), albumDir.resolve("2.jpg").toString()));
+        assertThat(committedItemCount(), is(2));
+    }
+
+    @Test
+    void writesPendingStatesOnStop() throws Exception {
+        start(StateWriteBehindSettings.builder().setMaxBatchSize(100).setMaxDelay(Duration.ofHours(1)).build());
+        saveItemStates(2);
+
+        stateManager.stop();
+        stateManager = null;
+
+        assertThat(committedItemCount(), is(2));
+    }
+
+    @Test
+    void migratesPathKeyedStateInChunks() throws Exception {
+        var itemCount = 2500;
+        try (var connection = DriverManager.getConnection("jdbc:h2:" + dbPath.toAbsolutePath(), "sa", "");
+             var statement = connection.createStatement()) {
+            statement.execute("CREATE TABLE MEDIA_ITEMS(" +
+                    "PATH VARCHAR(4096) PRIMARY KEY, " +
+                    "TOKEN VARCHAR(1024), " +
+                    "UPL_TIMESTAMP TIMESTAMP WITH TIME ZONE, " +
+                    "MEDIA_ID VARCHAR(256))");
+            try (var insert = connection.prepareStatement("INSERT INTO MEDIA_ITEMS (PATH, MEDIA_ID) VALUES (?,?)")) {
+                for (var i = 0; i < itemCount; i++) {
+                    insert.setString(1, albumDir.resolve(i + ".jpg").toString());
+                    insert.setString(2, "id" + i);
+                    insert.addBatch();
+                }
+                insert.setString(1, "noParent.jpg");
+                insert.setString(2, "noParentId");
+                insert.addBatch();
+                insert.executeBatch();
+            }
+        }
+
+        start(StateWriteBehindSettings.builder().build());
+
+        var states = stateManager.loadUploadedMediaItemIdByAbsolutePath();
+        assertThat(states.size(), is(itemCount + 1));
+        assertThat(states.get(albumDir.resolve("1234.jpg").toString()).mediaId(), optionalWithValue(equalTo("id1234")));
+        assertThat(states.get("noParent.jpg").mediaId(), optionalWithValue(equalTo("noParentId")));
+        try (var connection = DriverManager.getConnection("jdbc:h2:" + dbPath.toAbsolutePath(), "sa", "");
+             var tables = connection.getMetaData().getTables(null, null, "MEDIA_ITEMS", null)) {
+            assertThat(tables.next(), is(false));
+        }
+    }
+
+    private void start(StateWriteBehindSettings writeBehindSettings) {
+        stateManager = new UploadStateManagerImpl(varStore, dbPath, writeBehindSettings);
+        stateManager.start();
+    }
+
+    private void saveItemStates(int count) {
+        for (var i = 1; i <= count; i++) {
+            stateManager.saveItemState(albumDir.resolve(i + ".jpg"), ItemState.builder().setMediaId(String.valueOf(i)).build());
+        }
+    }
+
+    private int committedItemCount() throws SQLException {
+        try (var connection = DriverManager.getConnection("jdbc:h2:" + dbPath.toAbsolutePath(), "sa", "");
+             var statement = connection.createStatement();
+             var resultSet = statement.executeQuery("SELECT COUNT(*) FROM DIR_MEDIA_ITEMS")) {
+            resultSet.next();
+            return resultSet.getInt(1);
+        }
+    }
+}
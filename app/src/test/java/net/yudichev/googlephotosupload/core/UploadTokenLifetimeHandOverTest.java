@@ -0,0 +1,164 @@
+package net.yudichev.googlephotosupload.core;
+
+import com.google.common.collect.ImmutableList;
+import net.yudichev.jiotty.common.lang.CompletableFutures;
+import net.yudichev.jiotty.common.time.CurrentDateTimeProvider;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.IntStream;
+
+import static com.google.common.collect.ImmutableList.toImmutableList;
+import static java.time.Instant.EPOCH;
+import static net.yudichev.googlephotosupload.core.GooglePhotosUploaderImpl.GOOGLE_PHOTOS_API_BATCH_SIZE;
+import static net.yudichev.googlephotosupload.core.ResourceBundleModule.RESOURCE_BUNDLE;
+import static net.yudichev.googlephotosupload.core.UploadTokenLifetimeHandOver.UPLOAD_TOKEN_CHECK_INTERVAL;
+import static net.yudichev.googlephotosupload.core.UploadTokenLifetimeHandOver.UPLOAD_TOKEN_CREATE_BY_AGE;
+import static net.yudichev.jiotty.common.lang.ResultOrFailure.success;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+class UploadTokenLifetimeHandOverTest {
+    private static final String FILES = "files";
+
+    private final List<Duration> requestedDelays = new ArrayList<>();
+    private final List<CompletableFuture<Void>> timers = new ArrayList<>();
+    private final List<List<PathState>> handedOverResults = new ArrayList<>();
+    private final RecordingProgressStatusFactory progressStatusFactory = new RecordingProgressStatusFactory();
+    private final ProgressStatus progressStatus = progressStatusFactory.create(FILES, Optional.empty());
+    private volatile Instant currentInstant;
+    private UploadTokenLifetimeHandOver handOver;
+
+    @BeforeEach
+    void setUp() {
+        currentInstant = EPOCH;
+        handOver = new UploadTokenLifetimeHandOver(
+                new CurrentDateTimeProvider() {
+                    @Override
+                    public LocalDateTime currentDateTime() {
+                        return LocalDateTime.ofInstant(currentInstant(), ZoneOffset.UTC);
+                    }
+
+                    @Override
+                    public Instant currentInstant() {
+                        return currentInstant;
+                    }
+                },
+                delay -> {
+                    requestedDelays.add(delay);
+                    var timer = new CompletableFuture<Void>();
+                    timers.add(timer);
+                    return timer;
+                },
+                RESOURCE_BUNDLE);
+    }
+
+    @Test
+    void handsOverAllResultsOnceAllFilesAreUploaded() {
+        var uploaded = completedFuture(uploadedNow("uploaded.jpg"));
+        var uploading = new CompletableFuture<PathState>();
+        var handOverFuture = handOver.handOver(List.of(uploaded, uploading), false, progressStatus, this::consume);
+        assertThat(handedOverResults, is(empty()));
+
+        var lastUploaded = uploadedNow("last.jpg");
+        uploading.complete(lastUploaded);
+
+        assertThat(handedOverResults, contains(List.of(uploaded.join(), lastUploaded)));
+        assertThat(handOverFuture.isDone(), is(true));
+    }
+
+    @Test
+    void handsOverLeadingBatchesOnlyIfAsked() {
+        var leadingFiles = IntStream.range(0, GOOGLE_PHOTOS_API_BATCH_SIZE)
+                .mapToObj(i -> completedFuture(uploadedNow("file" + i + ".jpg")))
+                .collect(toImmutableList());
+        var uploading = new CompletableFuture<PathState>();
+        var pathStateFutures = ImmutableList.<CompletableFuture<PathState>>builder().addAll(leadingFiles).add(uploading).build();
+
+        handOver.handOver(pathStateFutures, false, progressStatus, this::consume);
+        assertThat(handedOverResults, is(empty()));
+
+        handOver.handOver(pathStateFutures, true, progressStatus, this::consume);
+        assertThat(handedOverResults, contains(hasSize(GOOGLE_PHOTOS_API_BATCH_SIZE)));
+
+        uploading.complete(uploadedNow("last.jpg"));
+        assertThat(handedOverResults, containsInAnyOrder(hasSize(GOOGLE_PHOTOS_API_BATCH_SIZE), hasSize(1), hasSize(GOOGLE_PHOTOS_API_BATCH_SIZE + 1)));
+    }
+
+    @Test
+    void checksTokensEveryTenMinutesAndHandsOverReadyResultsBeforeTokensExpire() {
+        var uploaded = completedFuture(uploadedNow("uploaded.jpg"));
+        var uploading = new CompletableFuture<PathState>();
+        var handOverFuture = handOver.handOver(List.of(uploaded, uploading), false, progressStatus, this::consume);
+        assertThat(requestedDelays, contains(UPLOAD_TOKEN_CHECK_INTERVAL));
+
+        advanceTimeBy(UPLOAD_TOKEN_CHECK_INTERVAL);
+        fireLastTimer();
+        assertThat(handedOverResults, is(empty()));
+        assertThat(requestedDelays, contains(UPLOAD_TOKEN_CHECK_INTERVAL, UPLOAD_TOKEN_CHECK_INTERVAL));
+
+        advanceTimeBy(UPLOAD_TOKEN_CREATE_BY_AGE.minus(UPLOAD_TOKEN_CHECK_INTERVAL));
+        fireLastTimer();
+        assertThat(handedOverResults, contains(List.of(uploaded.join())));
+        assertThat(progressStatusFactory.getStatusByName().get(FILES).getDescription(),
+                is(String.format(RESOURCE_BUNDLE.getString("uploaderUploadTokensDue"), 1, 1)));
+        assertThat(handOverFuture.isDone(), is(false));
+        // a new window for the files still uploading, checked on the same schedule
+        assertThat(requestedDelays, hasSize(3));
+        assertThat(requestedDelays.get(2), is(UPLOAD_TOKEN_CHECK_INTERVAL));
+
+        var lastUploaded = uploadedNow("last.jpg");
+        uploading.complete(lastUploaded);
+        assertThat(handedOverResults, contains(List.of(uploaded.join()), List.of(lastUploaded)));
+        assertThat(handOverFuture.isDone(), is(true));
+    }
+
+    @Test
+    void doesNotHandOverResultsWithMediaItemsAlreadyCreatedEarly() {
+        var created = completedFuture(PathState.of(Paths.get("created.jpg"), success(ItemState.builder()
+                .setMediaId("mediaId")
+                .setUploadState(UploadMediaItemState.of("token", currentInstant))
+                .build())));
+        var uploading = new CompletableFuture<PathState>();
+        handOver.handOver(List.of(created, uploading), false, progressStatus, this::consume);
+
+        advanceTimeBy(UPLOAD_TOKEN_CREATE_BY_AGE);
+        fireLastTimer();
+
+        assertThat(handedOverResults, is(empty()));
+        assertThat(requestedDelays, hasSize(2));
+    }
+
+    private CompletableFuture<Void> consume(CompletableFuture<List<PathState>> resultsFuture) {
+        handedOverResults.add(resultsFuture.join());
+        return CompletableFutures.completedFuture();
+    }
+
+    private void fireLastTimer() {
+        timers.get(timers.size() - 1).complete(null);
+    }
+
+    private void advanceTimeBy(Duration duration) {
+        currentInstant = currentInstant.plus(duration);
+    }
+
+    private PathState uploadedNow(String fileName) {
+        var path = Paths.get(fileName);
+        return PathState.of(path, success(ItemState.builder()
+                .setUploadState(UploadMediaItemState.of("token-" + fileName, currentInstant))
+                .build()));
+    }
+
+    private static CompletableFuture<PathState> completedFuture(PathState pathState) {
+        return CompletableFuture.completedFuture(pathState);
+    }
+}